@@ -23,6 +23,7 @@ import org.entrystore.ldcache.cache.Cache;
 import org.entrystore.ldcache.cache.impl.CacheImpl;
 import org.entrystore.ldcache.filters.JSCallbackFilter;
 import org.entrystore.ldcache.resources.CacheResource;
+import org.entrystore.ldcache.resources.JobResource;
 import org.entrystore.ldcache.resources.ProxyResource;
 import org.entrystore.ldcache.resources.StatusResource;
 import org.entrystore.ldcache.util.HttpUtil;
@@ -79,6 +80,7 @@ public class LDCache extends Application {
 		if (configURI != null && "file".equals(configURI.getScheme())) {
 			config = new JSONObject(new String(Files.readAllBytes(Paths.get(configURI))));
 			configureLogging(config);
+			configureCompression(config);
 			cache = new CacheImpl(config);
 		} else {
 			log.error("No configuration found");
@@ -100,6 +102,8 @@ public class LDCache extends Application {
 			log.info("Proxy disabled");
 		}
 		router.attach("/status", StatusResource.class);
+		router.attach("/jobs", JobResource.class);
+		router.attach("/jobs/{id}", JobResource.class);
 		router.attach("/", CacheResource.class);
 
 		JSCallbackFilter jsCallback = new JSCallbackFilter();
@@ -215,6 +219,32 @@ public class LDCache extends Application {
 		log.info("Log level set to " + l);
 	}
 
+	/**
+	 * Responses are compressed if the client accepts it and if they are not smaller than
+	 * the minimum size. Responses that are streamed have no known size and are always
+	 * compressed.
+	 */
+	private void configureCompression(JSONObject config) throws JSONException {
+		boolean enabled = true;
+		long minimumSize = 1024;
+		if (config.has("compression")) {
+			JSONObject compressionConfig = config.getJSONObject("compression");
+			if (compressionConfig.has("enabled")) {
+				enabled = compressionConfig.getBoolean("enabled");
+			}
+			if (compressionConfig.has("minimumSize")) {
+				minimumSize = compressionConfig.getLong("minimumSize");
+			}
+		}
+		getEncoderService().setEnabled(enabled);
+		getEncoderService().setMinimumSize(minimumSize);
+		if (enabled) {
+			log.info("Compressing responses of at least " + minimumSize + " bytes");
+		} else {
+			log.info("Response compression disabled");
+		}
+	}
+
 	// TODO handle shutdown, i.e., repository, executor in cacheimpl, and probably other stuff
 
 }
\ No newline at end of file
@@ -19,7 +19,10 @@ package org.entrystore.ldcache.cache;
 import org.openrdf.model.Model;
 import org.openrdf.model.URI;
 import org.openrdf.repository.Repository;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,8 +34,48 @@ public interface Cache {
 	// TODO replace some of the parameters with a DatabundleProperties class
 	void loadAndCacheResources(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth);
 
+	/**
+	 * Like loadAndCacheResources(), but runs in the background.
+	 *
+	 * @return The submitted job.
+	 * @throws java.util.concurrent.RejectedExecutionException If too many jobs are queued.
+	 */
+	Job submit(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth);
+
+	/**
+	 * @return The job with the given ID, or null if it does not exist (anymore).
+	 */
+	Job getJob(String id);
+
+	/**
+	 * @return All queued and running jobs and the recently finished ones, in order of submission.
+	 */
+	Collection<Job> getJobs();
+
 	Model getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth);
 
+	/**
+	 * @param visited Is populated with all resources that have been looked up, including
+	 *                those that are not cached.
+	 */
+	Model getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, Set<URI> visited);
+
+	/**
+	 * Like getMergedGraphs(), but passes the statements on to the sink while the graph is
+	 * traversed instead of collecting them in a model. Only handleStatement() is called.
+	 */
+	void getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, RDFHandler sink, Set<URI> visited) throws RDFHandlerException;
+
+	/**
+	 * @return The cache of serialized merged graphs, or null if it is disabled.
+	 */
+	ResultCache getResultCache();
+
 	Repository getRepository();
 
+	/**
+	 * @return The current request rate per second of recently accessed hosts.
+	 */
+	Map<String, Double> getRateLimits();
+
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache;
+
+import java.util.Date;
+
+/**
+ * A request to load and cache resources that runs in the background.
+ *
+ * @author Hannes Ebner
+ */
+public interface Job {
+
+	enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	String getId();
+
+	Status getStatus();
+
+	Date getSubmitted();
+
+	/**
+	 * @return The time the job started running, or null if it is still queued.
+	 */
+	Date getStarted();
+
+	/**
+	 * @return The time the job finished, or null if it is still queued or running.
+	 */
+	Date getFinished();
+
+	/**
+	 * @return The number of resources that have been fetched from their remote location.
+	 */
+	long getFetched();
+
+	/**
+	 * @return The number of fetched resources that have been cached.
+	 */
+	long getCached();
+
+	/**
+	 * @return The number of resources that could not be loaded.
+	 */
+	long getFailed();
+
+	/**
+	 * @return The number of resources of the current level that have not been loaded yet.
+	 */
+	long getQueued();
+
+	/**
+	 * @return The number of resources that have been visited so far.
+	 */
+	long getVisited();
+
+	boolean isDone();
+
+	/**
+	 * Cancels the job. Resources that are being loaded at the time are still cached.
+	 *
+	 * @return False if the job had already finished.
+	 */
+	boolean cancel();
+
+}
\ No newline at end of file
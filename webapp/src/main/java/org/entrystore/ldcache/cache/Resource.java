@@ -37,4 +37,25 @@ public interface Resource {
 
 	void setGraph(Model graph);
 
+	/**
+	 * @return The value of the ETag header of the remote resource, or null if none was sent.
+	 */
+	String getETag();
+
+	void setETag(String etag);
+
+	/**
+	 * @return The value of the Last-Modified header of the remote resource, or null if none was sent.
+	 */
+	String getLastModified();
+
+	void setLastModified(String lastModified);
+
+	/**
+	 * @return The value of the Cache-Control header of the remote resource, or null if none was sent.
+	 */
+	String getCacheControl();
+
+	void setCacheControl(String cacheControl);
+
 }
\ No newline at end of file
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.apache.log4j.Logger;
+import org.openrdf.model.URI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache of serialized responses to merged graph requests.
+ *
+ * Every entry records the resources it was computed from. When any of these resources
+ * is written, all entries that depend on it are evicted. Concurrent requests for the
+ * same key are coalesced, i.e. only one of them computes the result while the others
+ * wait for it, for a limited time. As soon as it is clear that the result cannot be
+ * cached, the waiting requests are released to compute it themselves.
+ *
+ * Results are computed by streaming them to the client; a copy of the output is kept
+ * and cached if it does not exceed the maximum entry size.
+ *
+ * @author Hannes Ebner
+ */
+public class ResultCache {
+
+	static Logger log = Logger.getLogger(ResultCache.class);
+
+	/**
+	 * A serialized result and the resources it has been computed from.
+	 */
+	public static class Result {
+
+		byte[] data;
+
+		Set<URI> dependencies;
+
+		/**
+		 * @param data The serialized result, or null if the result is empty.
+		 * @param dependencies All resources that have been visited to compute the result,
+		 *                     including those that were not cached at the time.
+		 */
+		public Result(byte[] data, Set<URI> dependencies) {
+			if (dependencies == null) {
+				throw new IllegalArgumentException("Dependencies must not be null");
+			}
+			this.data = data;
+			this.dependencies = dependencies;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+	}
+
+	/**
+	 * Handed out to a request that did not find a cached result. The request computes
+	 * the result, streams it through capture() and calls complete() or abandon().
+	 */
+	public class Lease {
+
+		String key;
+
+		/**
+		 * Resources that have been written while the result was computed.
+		 */
+		Set<URI> written = ConcurrentHashMap.newKeySet();
+
+		CompletableFuture<Result> inFlight;
+
+		Result result;
+
+		CappedOutputStream captured;
+
+		boolean done;
+
+		Lease(String key, CompletableFuture<Result> inFlight, Result result) {
+			this.key = key;
+			this.inFlight = inFlight;
+			this.result = result;
+			if (result == null) {
+				// registered before the result is computed, so that no write goes unnoticed
+				computing.add(this);
+			}
+		}
+
+		/**
+		 * @return The cached result, or null if the caller has to compute it.
+		 */
+		public Result getResult() {
+			return result;
+		}
+
+		/**
+		 * Returns a stream that writes to the given stream and keeps a copy of everything
+		 * written, as long as the copy does not exceed the maximum entry size.
+		 */
+		public OutputStream capture(OutputStream out) {
+			captured = new CappedOutputStream(out, maxEntrySize, new Runnable() {
+				@Override
+				public void run() {
+					uncacheable();
+				}
+			});
+			return captured;
+		}
+
+		/**
+		 * Caches the captured output. Output that was too large to be captured is not cached.
+		 *
+		 * @param dependencies All resources that have been visited to compute the result,
+		 *                     including those that were not cached at the time.
+		 */
+		public void complete(Set<URI> dependencies) {
+			if (captured == null || captured.isOverflown()) {
+				finish(null);
+			} else {
+				finish(new Result(captured.toByteArray(), dependencies));
+			}
+		}
+
+		/**
+		 * Caches an empty result.
+		 */
+		public void completeEmpty(Set<URI> dependencies) {
+			finish(new Result(null, dependencies));
+		}
+
+		/**
+		 * Gives up without caching anything, e.g. because the client has gone away.
+		 */
+		public void abandon() {
+			finish(null);
+		}
+
+		/**
+		 * Releases the requests that wait for this lease, the result is too large to be cached.
+		 */
+		private void uncacheable() {
+			if (inFlight != null) {
+				pending.remove(key, inFlight);
+				inFlight.complete(null);
+			}
+		}
+
+		private synchronized void finish(Result r) {
+			if (done) {
+				return;
+			}
+			done = true;
+			if (r != null) {
+				index(key, r);
+				cache.put(key, r);
+				// a dependency may have been written while the result was computed; writes
+				// after this check find the entry through the index
+				for (URI w : written) {
+					if (r.dependencies.contains(w)) {
+						cache.invalidate(key);
+						break;
+					}
+				}
+			}
+			computing.remove(this);
+			if (inFlight != null) {
+				inFlight.complete(r);
+				pending.remove(key, inFlight);
+			}
+		}
+
+	}
+
+	/**
+	 * The maximum time in seconds that a request waits for another one to compute the
+	 * same result, well below the time after which clients usually give up.
+	 */
+	private static final long WAIT_TIMEOUT = 10;
+
+	private com.google.common.cache.Cache<String, Result> cache;
+
+	Map<String, CompletableFuture<Result>> pending = new ConcurrentHashMap<>();
+
+	private Map<URI, Set<String>> dependents = new ConcurrentHashMap<>();
+
+	private Set<Lease> computing = ConcurrentHashMap.newKeySet();
+
+	private int maxEntrySize;
+
+	/**
+	 * @param maxBytes The maximum size of all cached results together.
+	 * @param maxEntrySize The maximum size of a single result.
+	 */
+	public ResultCache(long maxBytes, int maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+		cache = CacheBuilder.newBuilder().
+				maximumWeight(maxBytes).
+				weigher(new Weigher<String, Result>() {
+					@Override
+					public int weigh(String key, Result value) {
+						return key.length() + (value.data != null ? value.data.length : 0);
+					}
+				}).
+				removalListener(new RemovalListener<String, Result>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, Result> notification) {
+						// a replaced entry shares the index entries of its successor; entries
+						// that only the old value needed are dropped on the next invalidation
+						if (notification.getCause() != RemovalCause.REPLACED) {
+							unindex(notification.getKey(), notification.getValue());
+						}
+					}
+				}).
+				build();
+	}
+
+	/**
+	 * Looks up a result. If another request is already computing the result for the same
+	 * key, this method waits for it. If there is neither a cached nor a computed result,
+	 * the returned lease has no result and the caller has to compute it.
+	 *
+	 * @param key A key created with createKey().
+	 */
+	public Lease acquire(String key) {
+		Result r = cache.getIfPresent(key);
+		if (r != null) {
+			return new Lease(key, null, r);
+		}
+		CompletableFuture<Result> inFlight = new CompletableFuture<>();
+		CompletableFuture<Result> other = pending.putIfAbsent(key, inFlight);
+		if (other == null) {
+			// checked again because the result may have been added in the meantime
+			r = cache.getIfPresent(key);
+			if (r != null) {
+				pending.remove(key, inFlight);
+				inFlight.complete(r);
+			}
+			return new Lease(key, r == null ? inFlight : null, r);
+		}
+		try {
+			r = other.get(WAIT_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			log.debug("Concurrent computation of result failed: " + e.getMessage());
+		}
+		// if the other request did not produce a cacheable result we compute it ourselves
+		return new Lease(key, null, r);
+	}
+
+	/**
+	 * Evicts all results that depend on any of the given resources.
+	 */
+	public void invalidate(Collection<URI> resources) {
+		// recorded before the index is consulted, see Lease.finish()
+		for (Lease l : computing) {
+			l.written.addAll(resources);
+		}
+		List<String> keys = new ArrayList<>();
+		for (URI r : resources) {
+			Set<String> k = dependents.remove(r);
+			if (k != null) {
+				keys.addAll(k);
+			}
+		}
+		if (!keys.isEmpty()) {
+			cache.invalidateAll(keys);
+		}
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	private void index(String key, Result result) {
+		for (URI r : result.dependencies) {
+			dependents.computeIfAbsent(r, k -> ConcurrentHashMap.newKeySet()).add(key);
+		}
+	}
+
+	private void unindex(String key, Result result) {
+		if (result == null) {
+			return;
+		}
+		for (URI r : result.dependencies) {
+			Set<String> keys = dependents.get(r);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					dependents.remove(r, keys);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a normalized key for a merged graph request. Parameters that are sets are
+	 * sorted, so that requests that only differ in the order of values share a key.
+	 */
+	public static String createKey(URI url, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, String format) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(url).append('\n');
+		sb.append(depth).append('\n');
+		sb.append(format).append('\n');
+		sb.append(follow != null ? new TreeSet<>(toStrings(follow)) : "").append('\n');
+		sb.append(followTuples != null ? new TreeMap<>(toStrings(followTuples)) : "").append('\n');
+		sb.append(includeDestinations != null ? new TreeSet<>(includeDestinations) : "").append('\n');
+		sb.append(includeLiteralLanguages != null ? new TreeSet<>(includeLiteralLanguages) : "");
+		return sb.toString();
+	}
+
+	private static Set<String> toStrings(Set<URI> uris) {
+		Set<String> result = new TreeSet<>();
+		for (URI u : uris) {
+			result.add(u.stringValue());
+		}
+		return result;
+	}
+
+	private static Map<String, String> toStrings(Map<URI, URI> uris) {
+		Map<String, String> result = new TreeMap<>();
+		for (Map.Entry<URI, URI> e : uris.entrySet()) {
+			result.put(e.getKey().stringValue(), e.getValue().stringValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Passes everything through and keeps a copy of at most maxSize bytes.
+	 */
+	static class CappedOutputStream extends FilterOutputStream {
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		int maxSize;
+
+		boolean overflown;
+
+		Runnable onOverflow;
+
+		/**
+		 * @param onOverflow Is run once when the copy exceeds maxSize. May be null.
+		 */
+		CappedOutputStream(OutputStream out, int maxSize, Runnable onOverflow) {
+			super(out);
+			this.maxSize = maxSize;
+			this.onOverflow = onOverflow;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			copy(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			copy(b, off, len);
+		}
+
+		private void copy(byte[] b, int off, int len) {
+			if (overflown) {
+				return;
+			}
+			if (copy.size() + len > maxSize) {
+				overflown = true;
+				copy = null;
+				if (onOverflow != null) {
+					onOverflow.run();
+				}
+			} else {
+				copy.write(b, off, len);
+			}
+		}
+
+		boolean isOverflown() {
+			return overflown;
+		}
+
+		byte[] toByteArray() {
+			return copy.toByteArray();
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -16,37 +16,50 @@
 
 package org.entrystore.ldcache.cache.impl;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.log4j.Logger;
 import org.entrystore.ldcache.cache.Cache;
+import org.entrystore.ldcache.cache.Job;
+import org.entrystore.ldcache.cache.ResultCache;
 import org.entrystore.ldcache.util.HttpUtil;
 import org.entrystore.ldcache.util.JsonUtil;
 import org.entrystore.ldcache.util.ModelUtil;
+import org.entrystore.ldcache.util.RetryPolicy;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openrdf.model.Model;
 import org.openrdf.model.URI;
-import org.openrdf.model.impl.LinkedHashModel;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.sail.Sail;
 import org.openrdf.sail.memory.MemoryStore;
 import org.openrdf.sail.nativerdf.NativeStore;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -58,18 +71,40 @@ public class CacheImpl implements Cache {
 
 	Repository repository;
 
-	JSONObject config;
+	RepositoryWriter writer;
+
+	GraphCache graphCache;
+
+	ResultCache resultCache;
 
-	com.google.common.cache.Cache<String, RateLimiter> rateLimiters;
+	NegativeCache negativeCache;
 
-	double rateLimit = 2.0;
+	Map<URI, CompletableFuture<Model>> inFlight = new ConcurrentHashMap<>();
 
-	int cachingRetriesOnError = 0;
+	ThreadPoolExecutor jobExecutor;
 
-	long cachingTimeBetweenRetries = 1000;
+	Map<String, CrawlJob> jobs = new ConcurrentHashMap<>();
+
+	long jobRetention = 86400;
+
+	JSONObject config;
+
+	HostRateLimiter rateLimiter;
+
+	RetryPolicy retryPolicy = RetryPolicy.NONE;
 
 	ExecutorService executor;
 
+	Crawler crawler;
+
+	RefreshScheduler refreshScheduler;
+
+	File frontierLogDirectory;
+
+	boolean incrementalPopulation = true;
+
+	RepositorySnapshot snapshot;
+
 	public CacheImpl(JSONObject config) throws JSONException {
 		this.config = config;
 
@@ -95,18 +130,127 @@ public class CacheImpl implements Cache {
 			log.error(e.getMessage());
 		}
 
+		if (repoConfig.has("snapshot")) {
+			JSONObject snapshotConfig = repoConfig.getJSONObject("snapshot");
+			if (snapshotConfig.has("enabled") && !snapshotConfig.getBoolean("enabled")) {
+				log.info("Repository snapshots disabled");
+			} else if (!(sail instanceof MemoryStore)) {
+				log.warn("Snapshots are only supported for memory repositories, the repository type is " + repositoryType);
+			} else {
+				// loaded before population starts, population then only has to take care of changes
+				snapshot = new RepositorySnapshot(repository, (MemoryStore) sail, snapshotConfig);
+				snapshot.load();
+				snapshot.start();
+			}
+		}
+
 		JSONObject cacheConfig = config.getJSONObject("cache");
+
+		int writeBatchSize = 100;
+		if (cacheConfig.has("writeBatchSize")) {
+			writeBatchSize = cacheConfig.getInt("writeBatchSize");
+		}
+		long writeBatchLatency = 100;
+		if (cacheConfig.has("writeBatchLatency")) {
+			writeBatchLatency = cacheConfig.getLong("writeBatchLatency");
+		}
+		writer = new RepositoryWriter(repository, writeBatchSize, writeBatchLatency);
+
+		long graphCacheSize = 500000;
+		if (cacheConfig.has("graphCacheSize")) {
+			graphCacheSize = cacheConfig.getLong("graphCacheSize");
+		}
+		if (graphCacheSize > 0) {
+			log.info("Caching graphs of up to " + graphCacheSize + " triples in memory");
+			graphCache = new GraphCache(graphCacheSize);
+			writer.addCommitListener(new RepositoryWriter.CommitListener() {
+				@Override
+				public void committed(Set<URI> contexts) {
+					graphCache.invalidate(contexts);
+				}
+			});
+		}
+
+		long resultCacheSize = 64 * 1024 * 1024;
+		if (cacheConfig.has("resultCacheSize")) {
+			resultCacheSize = cacheConfig.getLong("resultCacheSize");
+		}
+		int resultCacheMaxEntrySize = 4 * 1024 * 1024;
+		if (cacheConfig.has("resultCacheMaxEntrySize")) {
+			resultCacheMaxEntrySize = cacheConfig.getInt("resultCacheMaxEntrySize");
+		}
+		if (resultCacheSize > 0) {
+			log.info("Caching merged graphs of up to " + resultCacheSize + " bytes in memory");
+			resultCache = new ResultCache(resultCacheSize, resultCacheMaxEntrySize);
+			writer.addCommitListener(new RepositoryWriter.CommitListener() {
+				@Override
+				public void committed(Set<URI> contexts) {
+					resultCache.invalidate(contexts);
+				}
+			});
+		}
+		JSONObject negativeCacheConfig = cacheConfig.has("negativeCache") ? cacheConfig.getJSONObject("negativeCache") : new JSONObject();
+		if (!negativeCacheConfig.has("enabled") || negativeCacheConfig.getBoolean("enabled")) {
+			negativeCache = new NegativeCache(repository, writer, negativeCacheConfig);
+		}
+
+		double rateLimit = 2.0;
 		if (cacheConfig.has("rateLimit")) {
 			rateLimit = cacheConfig.getDouble("rateLimit");
 		}
-		rateLimiters = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).maximumSize(1000).build();
+		rateLimiter = new HostRateLimiter(rateLimit, cacheConfig.optJSONObject("adaptiveRateLimit"), cacheConfig.optJSONObject("hostRateLimits"));
+		HttpUtil.setResponseObserver(new HttpUtil.ResponseObserver() {
+			@Override
+			public void observed(java.net.URI uri, HttpResponse<?> response, long latency, Throwable t) {
+				rateLimiter.observe(uri.getHost(), response != null ? response.statusCode() : -1, latency, HttpUtil.getRetryAfter(response), t);
+			}
+		});
+
+		JSONObject priorityWeights = cacheConfig.optJSONObject("priorityWeights");
+		if (cacheConfig.has("virtualThreads") && cacheConfig.getBoolean("virtualThreads")) {
+			executor = createVirtualThreadExecutor();
+			if (executor != null) {
+				int crawlerParallelism = 256;
+				if (cacheConfig.has("crawlerParallelism")) {
+					crawlerParallelism = cacheConfig.getInt("crawlerParallelism");
+				}
+				log.info("Using virtual threads for databundle population and crawling");
+				crawler = new Crawler(this, new PriorityExecutor(createVirtualThreadExecutor(), crawlerParallelism, priorityWeights));
+			}
+		}
+
+		if (executor == null) {
+			int threadPoolSize = 5;
+			if (cacheConfig.has("threadPoolSize")) {
+				threadPoolSize = cacheConfig.getInt("threadPoolSize");
+			}
+			log.info("Creating fixed thread pool with size " + threadPoolSize);
+			executor = Executors.newFixedThreadPool(threadPoolSize);
 
-		int threadPoolSize = 5;
-		if (cacheConfig.has("threadPoolSize")) {
-			threadPoolSize = cacheConfig.getInt("threadPoolSize");
+			int crawlerParallelism = 10;
+			if (cacheConfig.has("crawlerParallelism")) {
+				crawlerParallelism = cacheConfig.getInt("crawlerParallelism");
+			}
+			log.info("Creating crawler with parallelism " + crawlerParallelism);
+			crawler = new Crawler(this, new PriorityExecutor(Executors.newWorkStealingPool(crawlerParallelism), crawlerParallelism, priorityWeights));
 		}
-		log.info("Creating fixed thread pool with size " + threadPoolSize);
-		executor = Executors.newFixedThreadPool(threadPoolSize);
+
+		int jobThreads = 2;
+		int jobQueueSize = 100;
+		if (cacheConfig.has("jobs")) {
+			JSONObject jobsConfig = cacheConfig.getJSONObject("jobs");
+			if (jobsConfig.has("threads")) {
+				jobThreads = jobsConfig.getInt("threads");
+			}
+			if (jobsConfig.has("queueSize")) {
+				jobQueueSize = jobsConfig.getInt("queueSize");
+			}
+			if (jobsConfig.has("retention")) {
+				jobRetention = jobsConfig.getLong("retention");
+			}
+		}
+		log.info("Running up to " + jobThreads + " jobs at a time, queueing up to " + jobQueueSize + " more");
+		jobExecutor = new ThreadPoolExecutor(jobThreads, jobThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(jobQueueSize), new ThreadFactoryBuilder().setNameFormat("ldcache-job-%d").setDaemon(true).build());
 
 		if (cacheConfig.has("requestTimeout")) {
 			long timeout = cacheConfig.getLong("requestTimeout");
@@ -114,14 +258,63 @@ public class CacheImpl implements Cache {
 			HttpUtil.setTimeouts(timeout);
 		}
 
+		int maxConnectionsPerHost = 8;
+		int maxQueuedPerHost = 1000;
+		if (cacheConfig.has("connections")) {
+			JSONObject connectionsConfig = cacheConfig.getJSONObject("connections");
+			if (connectionsConfig.has("maxPerHost")) {
+				maxConnectionsPerHost = connectionsConfig.getInt("maxPerHost");
+			}
+			if (connectionsConfig.has("maxTotal")) {
+				log.warn("Ignoring connections.maxTotal, the total number of connections is not limited");
+			}
+			if (connectionsConfig.has("keepAlive")) {
+				log.warn("Ignoring connections.keepAlive, use the JVM option -Djdk.httpclient.keepalive.timeout instead");
+			}
+			if (connectionsConfig.has("maxQueuedPerHost")) {
+				maxQueuedPerHost = connectionsConfig.getInt("maxQueuedPerHost");
+			}
+		}
+		HttpUtil.setConnectionLimits(maxConnectionsPerHost, maxQueuedPerHost);
+
+		int retriesOnError = 0;
 		if (cacheConfig.has("retriesOnError")) {
-			cachingRetriesOnError = cacheConfig.getInt("retriesOnError");
-			log.info("Setting retries on error to " + cachingRetriesOnError);
+			retriesOnError = cacheConfig.getInt("retriesOnError");
+			log.info("Setting retries on error to " + retriesOnError);
 		}
 
+		long timeBetweenRetries = 1000;
 		if (cacheConfig.has("timeBetweenRetries")) {
-			cachingTimeBetweenRetries = cacheConfig.getLong("timeBetweenRetries");
-			log.info("Setting time between retries to " + cachingTimeBetweenRetries + " ms");
+			timeBetweenRetries = cacheConfig.getLong("timeBetweenRetries");
+			log.info("Setting time between retries to " + timeBetweenRetries + " ms");
+		}
+
+		long maxTimeBetweenRetries = Math.max(60000, timeBetweenRetries);
+		if (cacheConfig.has("maxTimeBetweenRetries")) {
+			maxTimeBetweenRetries = cacheConfig.getLong("maxTimeBetweenRetries");
+			log.info("Setting maximum time between retries to " + maxTimeBetweenRetries + " ms");
+		}
+		retryPolicy = new RetryPolicy(retriesOnError, timeBetweenRetries, maxTimeBetweenRetries);
+
+		if (cacheConfig.has("incrementalPopulation")) {
+			incrementalPopulation = cacheConfig.getBoolean("incrementalPopulation");
+			log.info("Incremental population of databundles is " + (incrementalPopulation ? "enabled" : "disabled"));
+		}
+
+		if (cacheConfig.has("frontierLog")) {
+			JSONObject frontierLogConfig = cacheConfig.getJSONObject("frontierLog");
+			if (!frontierLogConfig.has("enabled") || frontierLogConfig.getBoolean("enabled")) {
+				frontierLogDirectory = new File(java.net.URI.create(frontierLogConfig.getString("uri")));
+				log.info("Logging the traversal of databundles to " + frontierLogDirectory);
+			}
+		}
+
+		if (cacheConfig.has("refresh")) {
+			JSONObject refreshConfig = cacheConfig.getJSONObject("refresh");
+			if (!refreshConfig.has("enabled") || refreshConfig.getBoolean("enabled")) {
+				refreshScheduler = new RefreshScheduler(this, crawler.executor.forPriority(PriorityExecutor.Priority.BULK), refreshConfig);
+				refreshScheduler.start();
+			}
 		}
 
 		populateDatabundles(config.getJSONArray("databundles"));
@@ -181,120 +374,416 @@ public class CacheImpl implements Cache {
 			followDepth = databundle.getInt("followDepth");
 		}
 
-		loadAndCacheResources(JsonUtil.jsonArrayToURISet(resources), JsonUtil.jsonArrayToURISet(follow), JsonUtil.jsonArrayToMap(followTuples), JsonUtil.jsonArrayToStringSet(includeDestinations), JsonUtil.jsonArrayToStringSet(includeLiteralLanguages, true), followDepth);
+		long ttl = -1;
+		if (databundle.has("ttl")) {
+			ttl = databundle.getLong("ttl");
+		}
+
+		Set<URI> resourceSet = JsonUtil.jsonArrayToURISet(resources);
+		Set<URI> followSet = JsonUtil.jsonArrayToURISet(follow);
+		Map<URI, URI> followTupleMap = JsonUtil.jsonArrayToMap(followTuples);
+		Set<String> includeDestinationSet = JsonUtil.jsonArrayToStringSet(includeDestinations);
+		Set<String> includeLiteralLanguageSet = JsonUtil.jsonArrayToStringSet(includeLiteralLanguages, true);
+
+		FrontierLog frontierLog = null;
+		if (frontierLogDirectory != null) {
+			String fingerprint = FrontierLog.fingerprint(resourceSet, followSet, followTupleMap, includeDestinationSet, includeLiteralLanguageSet, followDepth);
+			frontierLog = new FrontierLog(new File(frontierLogDirectory, FrontierLog.getFileName(name)), fingerprint);
+			try {
+				frontierLog.open();
+			} catch (IOException e) {
+				log.error("Unable to open frontier log of databundle \"" + name + "\": " + e.getMessage());
+				frontierLog = null;
+			}
+		}
+
+		SailDatabundle bundle = null;
+		String linkFingerprint = null;
+		LinkIndex linkIndex = null;
+		if (incrementalPopulation) {
+			bundle = new SailDatabundle(repository, SailDatabundle.createURI(name), writer);
+			linkFingerprint = LinkIndex.fingerprint(followSet, followTupleMap, includeDestinationSet);
+			if (linkFingerprint.equals(bundle.getFingerprint())) {
+				linkIndex = bundle.loadLinkIndex();
+				int modified = linkIndex.retainValid(RdfResource.loadModified(repository));
+				log.info("Reusing the links of " + linkIndex.size() + " resource" + (linkIndex.size() == 1 ? "" : "s") + " of databundle \"" + name + "\", " + modified + " ha" + (modified == 1 ? "s" : "ve") + " been modified or removed since the last population");
+			} else {
+				linkIndex = new LinkIndex();
+			}
+		}
+		Set<URI> reused = linkIndex != null ? new HashSet<>(linkIndex.getResources()) : new HashSet<URI>();
+
+		Set<URI> visited = new HashSet<>();
+		// resources that could not be loaded are not members of the databundle
+		Set<URI> loaded = new HashSet<>();
+		try {
+			crawler.populate(resourceSet, followSet, followTupleMap, includeDestinationSet, includeLiteralLanguageSet, followDepth, visited, loaded, PriorityExecutor.Priority.BULK, frontierLog, linkIndex);
+		} finally {
+			if (frontierLog != null) {
+				frontierLog.close();
+			}
+		}
+		if (refreshScheduler != null) {
+			refreshScheduler.register(loaded, ttl, includeLiteralLanguageSet);
+		}
+		if (bundle != null && !Thread.currentThread().isInterrupted()) {
+			// resources that are not reachable anymore are dropped from the databundle, but stay cached
+			linkIndex.retainAll(loaded);
+			bundle.update(linkFingerprint, loaded, linkIndex);
+			reused.retainAll(loaded);
+			log.info("Visited " + visited.size() + " resource" + (visited.size() == 1 ? "" : "s") + " of databundle \"" + name + "\", " + (visited.size() - loaded.size()) + " could not be loaded and " + (loaded.size() - reused.size()) + " had to be loaded");
+		}
 
 		long duration = (new Date().getTime() - begin.getTime())/1000;
 		log.info("Finished populating databundle \"" + name + "\" in " + duration + " seconds");
 	}
 
-	private Model loadResources(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int level, int depth, boolean loadAndCache, boolean returnModel, Multimap<URI, Integer> visited) {
-		Model result = new LinkedHashModel();
-		for (URI r : resources) {
-			if (visited.containsEntry((URI) r, level)) {
-				log.debug("Skipping <" + r + ">, resource already fetched and traversed from on level " + level);
-				continue;
+	/**
+	 * Loads a single resource, either from the repository or, if it is not cached yet and
+	 * loadAndCache is set, from its remote location. Fetched resources are cached.
+	 *
+	 * Only the repository access, throttling, parsing and saving run on the executor;
+	 * the remote request itself does not occupy a thread while it is in flight.
+	 *
+	 * @param job Receives the number of fetched and cached resources. May be null.
+	 * @return A future graph filtered by the language whitelist. The future's value is
+	 * null if the resource could not be loaded.
+	 */
+	CompletableFuture<Model> loadResource(final URI r, final Set<String> includeLiteralLanguages, final boolean loadAndCache, final Executor executor, final CrawlJob job) {
+		return CompletableFuture.supplyAsync(() -> {
+			Model graph = loadCachedGraph(r);
+			if (graph != null) {
+				return ModelUtil.filterLanguageLiterals(graph, r, includeLiteralLanguages);
 			}
+			return null;
+		}, executor).thenCompose(graph -> {
+			if (graph != null || !loadAndCache) {
+				return CompletableFuture.completedFuture(graph);
+			}
+			return fetchResource(r, includeLiteralLanguages, executor, job);
+		});
+	}
 
-			Model graph = null;
-			if (RdfResource.hasResource(repository, (URI) r)) {
-				graph = RdfResource.loadFromRepository(repository, (URI) r).getGraph();
-				graph = ModelUtil.filterLanguageLiterals(graph, r, includeLiteralLanguages);
-			} else {
-				if (loadAndCache) {
-					throttle((URI) r);
-					graph = HttpUtil.getModelFromResponse(r, HttpUtil.getResourceFromURL(r.toString(), 0, cachingRetriesOnError, cachingTimeBetweenRetries));
-					if (graph != null) {
-						graph = ModelUtil.filterLanguageLiterals(graph, r, includeLiteralLanguages);
-						RdfResource res = new RdfResource((URI) r, graph, new Date());
-						RdfResource.saveToRepository(repository, res);
-						log.info("Cached <" + r + ">");
-					} else {
-						log.warn("Model was null for <" + r + ">");
-					}
+	/**
+	 * @return The unfiltered graph of a cached resource, including writes that have not
+	 * been committed yet, or null if the resource is not cached.
+	 */
+	private Model loadCachedGraph(URI r) {
+		if (writer.isPending(r)) {
+			org.entrystore.ldcache.cache.Resource pending = writer.getPending(r);
+			return pending != null ? pending.getGraph() : null;
+		}
+		long generation = 0;
+		if (graphCache != null) {
+			Model graph = graphCache.get(r);
+			if (graph != null) {
+				return graph;
+			}
+			generation = graphCache.getGeneration(r);
+		}
+		if (RdfResource.hasResource(repository, r)) {
+			org.entrystore.ldcache.cache.Resource cached = RdfResource.loadFromRepository(repository, r);
+			if (cached != null) {
+				if (graphCache != null) {
+					graphCache.put(r, cached.getGraph(), generation);
 				}
+				return cached.getGraph();
 			}
+		}
+		return null;
+	}
 
-			if (graph != null) {
-				visited.put((URI) r, level);
+	/**
+	 * Fetches and caches a resource. Concurrent calls for the same resource share a single
+	 * fetch: the first call (the leader) fetches, parses and saves the resource, the others
+	 * wait for the leader's graph and apply their own language whitelist to it.
+	 */
+	private CompletableFuture<Model> fetchResource(final URI r, final Set<String> includeLiteralLanguages, final Executor executor, final CrawlJob job) {
+		if (!isFetchable(r)) {
+			log.debug("Not fetching <" + r + ">, only HTTP and HTTPS resources can be fetched");
+			return CompletableFuture.completedFuture(null);
+		}
+		if (negativeCache != null && negativeCache.isBlocked(r)) {
+			log.debug("Not fetching <" + r + ">, it has failed before and its backoff window has not passed yet");
+			return CompletableFuture.completedFuture(null);
+		}
+		final CompletableFuture<Model> leader = new CompletableFuture<>();
+		CompletableFuture<Model> existing = inFlight.putIfAbsent(r, leader);
+		if (existing != null) {
+			log.debug("Waiting for fetch of <" + r + "> that is already in flight");
+			return existing.thenApplyAsync(graph -> graph != null ? ModelUtil.filterLanguageLiterals(graph, r, includeLiteralLanguages) : null, executor);
+		}
+		// another leader may have completed between our cache lookup and becoming leader
+		Model cached = loadCachedGraph(r);
+		if (cached != null) {
+			inFlight.remove(r, leader);
+			leader.complete(cached);
+			return CompletableFuture.completedFuture(ModelUtil.filterLanguageLiterals(cached, r, includeLiteralLanguages));
+		}
+		CompletableFuture<Model> fetch;
+		try {
+			fetch = fetchAndCacheResource(r, includeLiteralLanguages, executor, job);
+		} catch (RuntimeException e) {
+			// e.g. an IRI that is not a valid java.net.URI; waiting followers must not hang
+			fetch = new CompletableFuture<>();
+			fetch.completeExceptionally(e);
+		}
+		fetch.whenComplete((graph, t) -> {
+			// the graph has been queued for saving at this point, later lookups find it
+			inFlight.remove(r, leader);
+			if (t != null) {
+				leader.completeExceptionally(t);
+			} else {
+				leader.complete(graph);
+			}
+		});
+		return leader;
+	}
 
-				if (returnModel) {
-					result.addAll(graph);
+	/**
+	 * @return True if the resource can be fetched, i.e. if it is an HTTP or HTTPS URI.
+	 */
+	static boolean isFetchable(URI r) {
+		String uri = r.stringValue().toLowerCase();
+		return uri.startsWith("http://") || uri.startsWith("https://");
+	}
+
+	private CompletableFuture<Model> fetchAndCacheResource(final URI r, final Set<String> includeLiteralLanguages, final Executor executor, final CrawlJob job) {
+		return throttle(r).thenCompose(v -> HttpUtil.getResourceFromURLAsync(r.toString(), retryPolicy)).thenApplyAsync(response -> {
+			Model graph = cacheResponse(r, response, includeLiteralLanguages);
+			if (job != null) {
+				job.fetched.incrementAndGet();
+				if (graph != null) {
+					job.cached.incrementAndGet();
 				}
-				if (propertiesToFollow != null && level < depth) {
-					Set<URI> objects = new HashSet<>();
-					for (URI prop : propertiesToFollow) {
-						objects.addAll(ModelUtil.valueToURI(graph.filter(null, (URI) prop, null).objects()));
-					}
-					if (followTuples != null) {
-						objects.addAll(getMatchingSubjects(graph, followTuples));
+			}
+			recordOutcome(r, response, graph != null);
+			return graph;
+		}, executor).whenCompleteAsync((graph, t) -> recordFailure(r, t), executor);
+	}
+
+	/**
+	 * Records the outcome of a request for a resource in the negative cache.
+	 */
+	private void recordOutcome(URI r, HttpResponse<byte[]> response, boolean succeeded) {
+		if (negativeCache != null) {
+			if (succeeded) {
+				negativeCache.succeeded(r);
+			} else {
+				negativeCache.failed(r, NegativeCache.classify(response));
+			}
+		}
+	}
+
+	/**
+	 * Records a request for a resource that failed with a connection error in the negative cache.
+	 */
+	private void recordFailure(URI r, Throwable t) {
+		Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+		if (negativeCache != null && cause instanceof IOException) {
+			negativeCache.failed(r, NegativeCache.FailureClass.CONNECTION_ERROR);
+		}
+	}
+
+	/**
+	 * Revalidates a cached resource with a conditional request using the validators that
+	 * were stored when the resource was cached. If the remote resource has not changed
+	 * (304) nothing is parsed or written, otherwise the resource is cached again.
+	 *
+	 * @return A future that is true if the resource has been revalidated or updated.
+	 */
+	CompletableFuture<Boolean> refreshResource(final URI r, final Set<String> includeLiteralLanguages, final Executor executor) {
+		return CompletableFuture.supplyAsync(() -> RdfResource.loadFromRepository(repository, r, false), executor).thenCompose(cached -> {
+			String etag = cached != null ? cached.getETag() : null;
+			String lastModified = cached != null ? cached.getLastModified() : null;
+			return throttle(r).thenCompose(v -> HttpUtil.getResourceFromURLAsync(r.toString(), etag, lastModified, retryPolicy));
+		}).thenApplyAsync(response -> {
+			if (HttpUtil.isNotModified(response)) {
+				log.debug("Not modified: <" + r + ">");
+				RdfResource.updateValidated(repository, r, new Date());
+				recordOutcome(r, response, true);
+				return true;
+			}
+			boolean cached = cacheResponse(r, response, includeLiteralLanguages) != null;
+			recordOutcome(r, response, cached);
+			return cached;
+		}, executor).whenCompleteAsync((refreshed, t) -> recordFailure(r, t), executor);
+	}
+
+	private Model cacheResponse(URI r, HttpResponse<byte[]> response, Set<String> includeLiteralLanguages) {
+		Model graph = HttpUtil.getModelFromResponse(r, response, includeLiteralLanguages);
+		if (graph != null) {
+			RdfResource res = new RdfResource(r, graph, new Date());
+			HttpUtil.setValidators(res, response);
+			writer.save(res);
+			log.info("Cached <" + r + ">");
+		} else {
+			log.warn("Model was null for <" + r + ">");
+		}
+		return graph;
+	}
+
+	@Override
+	public void loadAndCacheResources(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth) {
+		loadAndCacheResources(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, -1, null, PriorityExecutor.Priority.ON_DEMAND);
+	}
+
+	@Override
+	public Job submit(final Set<URI> resources, final Set<URI> follow, final Map<URI, URI> followTuples, final Set<String> includeDestinations, final Set<String> includeLiteralLanguages, final int depth) {
+		purgeJobs();
+		final CrawlJob job = new CrawlJob();
+		synchronized (job) {
+			job.executor = jobExecutor;
+			job.future = jobExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (!job.start()) {
+						return;
 					}
-					objects = filterResources(objects, includeDestinations);
-					objects.remove(r);
-					if (objects.size() > 0) {
-						log.debug("Crawling " + objects.size() + " resource" + (objects.size() == 1 ? "" : "s") + " linked from <" + r + ">: " + objects);
-						result.addAll(loadResources(objects, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, level + 1, depth, loadAndCache, returnModel, visited));
+					log.info("Started job " + job.getId());
+					try {
+						loadAndCacheResources(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, -1, job, PriorityExecutor.Priority.ON_DEMAND);
+						job.finish(Job.Status.COMPLETED);
+					} catch (RuntimeException e) {
+						log.error("Job " + job.getId() + " failed: " + e.getMessage());
+						job.finish(Job.Status.FAILED);
 					}
+					log.info("Job " + job.getId() + " finished with status " + job.getStatus() + ", fetched " + job.getFetched() + ", cached " + job.getCached() + ", failed " + job.getFailed());
 				}
-			}
+			});
 		}
-		return result;
+		jobs.put(job.getId(), job);
+		return job;
 	}
 
 	@Override
-	public void loadAndCacheResources(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth) {
-		loadResources(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, 0, depth, true, false, HashMultimap.<URI, Integer>create());
+	public Job getJob(String id) {
+		return jobs.get(id);
+	}
+
+	@Override
+	public Collection<Job> getJobs() {
+		purgeJobs();
+		List<Job> result = new ArrayList<Job>(jobs.values());
+		Collections.sort(result, (j1, j2) -> j1.getSubmitted().compareTo(j2.getSubmitted()));
+		return result;
+	}
+
+	/**
+	 * Forgets jobs that finished longer ago than the job retention time.
+	 */
+	private void purgeJobs() {
+		long threshold = System.currentTimeMillis() - jobRetention * 1000;
+		Iterator<CrawlJob> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			CrawlJob job = it.next();
+			if (job.isDone() && job.getFinished().getTime() < threshold) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param ttl The TTL in seconds after which the cached resources should be refreshed, or -1 for the default.
+	 * @param job Receives the progress of the crawl. May be null.
+	 * @param priority The priority class in which the resources are fetched.
+	 */
+	private void loadAndCacheResources(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, long ttl, CrawlJob job, PriorityExecutor.Priority priority) {
+		Set<URI> visited = new HashSet<>();
+		crawler.crawl(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, true, false, visited, job, priority);
+		if (refreshScheduler != null) {
+			refreshScheduler.register(visited, ttl, includeLiteralLanguages);
+		}
 	}
 
 	@Override
 	public Model getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth) {
-		return loadResources(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, 0, depth, false, true, HashMultimap.<URI, Integer>create());
+		return getMergedGraphs(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, null);
+	}
+
+	@Override
+	public Model getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, Set<URI> visited) {
+		return crawler.crawl(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, false, true, visited);
+	}
+
+	@Override
+	public void getMergedGraphs(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, RDFHandler sink, Set<URI> visited) throws RDFHandlerException {
+		crawler.crawl(resources, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, false, sink, visited);
+	}
+
+	@Override
+	public ResultCache getResultCache() {
+		return resultCache;
 	}
 
 	public Repository getRepository() {
 		return this.repository;
 	}
 
-	private Set<URI> filterResources(Set<URI> resources, Set<String> allowedPrefixes) {
-		if (resources == null || allowedPrefixes == null) {
-			throw new IllegalArgumentException("Parameters must not be null");
-		}
-		if (allowedPrefixes.contains("*")) {
-			return resources;
-		}
-		Set<URI> result = new HashSet<>();
-		for (URI r : resources) {
-			for (String p : allowedPrefixes) {
-				if (r.stringValue().startsWith(p)) {
-					result.add(r);
-				}
-			}
+	/**
+	 * Creates an executor that starts a new virtual thread for each task. Virtual threads
+	 * are only available on Java 21 and later, the executor is therefore looked up via
+	 * reflection to keep the code compatible with older runtimes.
+	 *
+	 * @return An executor or null if virtual threads are not supported by the running JVM.
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			log.warn("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", falling back to thread pools");
 		}
-		return result;
+		return null;
 	}
 
-	private Set<URI> getMatchingSubjects(Model model, Map<URI, URI> tuplesPO) {
-		if (model == null || tuplesPO == null) {
-			throw new IllegalArgumentException();
-		}
-		Set<URI> result = new HashSet<>();
-		for (URI v : tuplesPO.keySet()) {
-			result.addAll(ModelUtil.resourceToURI(model.filter(null, (URI) v, tuplesPO.get(v)).subjects()));
+	/**
+	 * @return The host of the URI, or null if the URI has no host or if it is an IRI
+	 * that is not a valid java.net.URI.
+	 */
+	static String getHost(URI uri) {
+		try {
+			return java.net.URI.create(uri.stringValue()).getHost();
+		} catch (IllegalArgumentException e) {
+			log.debug("Unable to determine host of <" + uri + ">: " + e.getMessage());
+			return null;
 		}
-		return result;
 	}
 
-	void throttle(URI uri) {
-		String hostname = java.net.URI.create(uri.stringValue()).getHost();
+	/**
+	 * @return A future that completes once a request to the host of the URI may be sent.
+	 * Waiting does not block a thread, the future is completed on a delayed executor when
+	 * the reserved slot has come.
+	 */
+	CompletableFuture<Void> throttle(URI uri) {
+		CompletableFuture<Void> permit = new CompletableFuture<>();
+		acquirePermit(getHost(uri), permit);
+		return permit;
+	}
+
+	private void acquirePermit(final String host, final CompletableFuture<Void> permit) {
 		try {
-			rateLimiters.get(hostname, new Callable<RateLimiter>() {
-				@Override
-				public RateLimiter call() throws Exception {
-					return RateLimiter.create(rateLimit);
+			long delay = rateLimiter.reserve(host);
+			if (delay <= 0) {
+				permit.complete(null);
+				return;
+			}
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+				// a Retry-After pause that has been requested after the reservation is waited for once more
+				if (rateLimiter.getPause(host) > 0) {
+					acquirePermit(host, permit);
+				} else {
+					permit.complete(null);
 				}
-			}).acquire();
-		} catch (ExecutionException e) {
-			log.error(e.getMessage());
+			});
+		} catch (RuntimeException e) {
+			permit.completeExceptionally(e);
 		}
 	}
 
+	@Override
+	public Map<String, Double> getRateLimits() {
+		return rateLimiter.getRates();
+	}
+
 }
\ No newline at end of file
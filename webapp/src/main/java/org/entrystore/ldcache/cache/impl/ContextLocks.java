@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.util.concurrent.Striped;
+import org.openrdf.model.URI;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Read/write locks per named graph, striped by context URI.
+ *
+ * Writers to different contexts do not block each other (unless their URIs happen to
+ * map to the same stripe), and readers that take the read lock of a context see either
+ * the complete state before or after a write to that context, never parts of both.
+ *
+ * @author Hannes Ebner
+ */
+public class ContextLocks {
+
+	private static Striped<ReadWriteLock> locks = Striped.readWriteLock(1024);
+
+	public static Lock readLock(URI context) {
+		return locks.get(context).readLock();
+	}
+
+	public static Lock writeLock(URI context) {
+		return locks.get(context).writeLock();
+	}
+
+	/**
+	 * Returns the write locks of several contexts in a globally consistent order. The locks
+	 * must be acquired in the returned order and released in reverse order, otherwise
+	 * concurrent writers to overlapping sets of contexts may deadlock.
+	 */
+	public static List<Lock> writeLocks(Collection<URI> contexts) {
+		List<Lock> result = new ArrayList<>();
+		for (ReadWriteLock rwl : locks.bulkGet(contexts)) {
+			Lock l = rwl.writeLock();
+			// several contexts may share a stripe, and write locks are reentrant, but
+			// acquiring the same lock only once keeps lock and unlock counts simple
+			if (!result.contains(l)) {
+				result.add(l);
+			}
+		}
+		return result;
+	}
+
+}
\ No newline at end of file
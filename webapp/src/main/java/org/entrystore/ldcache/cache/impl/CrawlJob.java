@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.entrystore.ldcache.cache.Job;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A crawl that loads and caches resources on the job executor of the cache.
+ *
+ * The counters are updated by the crawler and the cache while the job runs and may be
+ * read at any time. Cancelling a running job interrupts the crawl between two levels
+ * or while it waits for a level to complete.
+ *
+ * @author Hannes Ebner
+ */
+public class CrawlJob implements Job {
+
+	String id = UUID.randomUUID().toString();
+
+	volatile Status status = Status.QUEUED;
+
+	Date submitted = new Date();
+
+	volatile Date started;
+
+	volatile Date finished;
+
+	AtomicLong fetched = new AtomicLong();
+
+	AtomicLong cached = new AtomicLong();
+
+	AtomicLong failed = new AtomicLong();
+
+	AtomicLong queued = new AtomicLong();
+
+	AtomicLong visited = new AtomicLong();
+
+	volatile boolean cancelled;
+
+	Future<?> future;
+
+	/**
+	 * The executor the job has been submitted to.
+	 */
+	ThreadPoolExecutor executor;
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public Status getStatus() {
+		return status;
+	}
+
+	@Override
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	@Override
+	public Date getStarted() {
+		return started;
+	}
+
+	@Override
+	public Date getFinished() {
+		return finished;
+	}
+
+	@Override
+	public long getFetched() {
+		return fetched.get();
+	}
+
+	@Override
+	public long getCached() {
+		return cached.get();
+	}
+
+	@Override
+	public long getFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public long getQueued() {
+		return queued.get();
+	}
+
+	@Override
+	public long getVisited() {
+		return visited.get();
+	}
+
+	@Override
+	public boolean isDone() {
+		return finished != null;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean cancel() {
+		if (isDone()) {
+			return false;
+		}
+		cancelled = true;
+		if (status == Status.QUEUED) {
+			finish(Status.CANCELLED);
+		}
+		if (future != null) {
+			future.cancel(true);
+			if (executor != null && future instanceof Runnable) {
+				// a job that has not started would otherwise keep its slot in the bounded queue
+				executor.remove((Runnable) future);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return False if the job has been cancelled before it could start.
+	 */
+	synchronized boolean start() {
+		if (cancelled) {
+			return false;
+		}
+		started = new Date();
+		status = Status.RUNNING;
+		return true;
+	}
+
+	synchronized void finish(Status status) {
+		if (isDone()) {
+			return;
+		}
+		queued.set(0);
+		this.status = cancelled ? Status.CANCELLED : status;
+		finished = new Date();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.util.ModelUtil;
+import org.openrdf.model.Model;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Traverses the link graph level by level. All resources of a level (the frontier)
+ * are deduplicated against everything that has been visited before and are then
+ * expanded as one batch on the crawler's executor. The links found on one level
+ * make up the frontier of the next level.
+ *
+ * Because the traversal is breadth-first every resource is reached on the lowest
+ * possible level, so it is sufficient to visit each resource once per crawl.
+ *
+ * Resources are loaded in the priority class of the crawl, so that crawls that a client
+ * is waiting for are not queued behind background population.
+ *
+ * @author Hannes Ebner
+ */
+public class Crawler {
+
+	static Logger log = Logger.getLogger(Crawler.class);
+
+	CacheImpl cache;
+
+	PriorityExecutor executor;
+
+	public Crawler(CacheImpl cache, PriorityExecutor executor) {
+		if (cache == null || executor == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.cache = cache;
+		this.executor = executor;
+	}
+
+	/**
+	 * @param resources The root resources, i.e. the frontier of level 0.
+	 * @param propertiesToFollow The properties whose objects are followed.
+	 * @param followTuples Property/object pairs whose subjects are followed.
+	 * @param includeDestinations URI prefixes of resources that may be followed; "*" matches everything.
+	 * @param includeLiteralLanguages The language whitelist for literals.
+	 * @param depth The maximum level that is expanded.
+	 * @param loadAndCache Whether resources that are not in the repository should be fetched and cached.
+	 * @param returnModel Whether the graphs of all visited resources should be merged and returned.
+	 * @param visited Receives all resources that have been visited during the crawl. May be null.
+	 * @return The merged graphs of all visited resources, or an empty model if returnModel is false.
+	 */
+	public Model crawl(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, boolean loadAndCache, boolean returnModel, Set<URI> visited) {
+		return crawl(resources, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, depth, loadAndCache, returnModel, visited, null, PriorityExecutor.Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Crawls like the method above and reports the progress to a job.
+	 *
+	 * @param job Receives the progress and is checked for cancellation. May be null.
+	 * @param priority The priority class in which the resources are loaded.
+	 */
+	public Model crawl(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, boolean loadAndCache, boolean returnModel, Set<URI> visited, CrawlJob job, PriorityExecutor.Priority priority) {
+		final Model result = new LinkedHashModel();
+		GraphHandler handler = null;
+		if (returnModel) {
+			handler = new GraphHandler() {
+				@Override
+				public void handle(URI resource, Model graph) {
+					result.addAll(graph);
+				}
+			};
+		}
+		try {
+			traverse(resources, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, depth, loadAndCache, visited, null, handler, job, executor.forPriority(priority), null, null);
+		} catch (RDFHandlerException e) {
+			// does not happen, the handler above does not throw
+			log.error(e.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 * Loads and caches all resources like crawl() and records the traversal in a frontier
+	 * log. If the log contains a checkpoint of an interrupted population, the traversal
+	 * resumes from there instead of starting from the root resources.
+	 *
+	 * Resources with a valid entry in the link index are expanded with the indexed links,
+	 * without loading their graphs. The links of all other resources are added to the index.
+	 *
+	 * @param loaded Receives the visited resources that have been loaded successfully. May be null.
+	 * @param frontierLog An opened frontier log. May be null.
+	 * @param linkIndex The links of resources that are cached and unmodified since they were indexed. May be null.
+	 */
+	public void populate(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, Set<URI> visited, Set<URI> loaded, PriorityExecutor.Priority priority, FrontierLog frontierLog, LinkIndex linkIndex) {
+		try {
+			traverse(resources, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, depth, true, visited, loaded, null, null, executor.forPriority(priority), frontierLog, linkIndex);
+		} catch (RDFHandlerException e) {
+			// does not happen without handler
+			log.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Crawls like crawl(), but instead of merging the graphs of the visited resources into
+	 * one model, their statements are passed on to the sink as soon as a resource has been
+	 * loaded. Statements that have already been passed on are skipped; to detect them only
+	 * a 64 bit hash is kept per statement. Only handleStatement() is called on the sink,
+	 * startRDF() and endRDF() are up to the caller. The resources are loaded with
+	 * interactive priority.
+	 *
+	 * @param sink Receives the statements of all visited resources.
+	 * @throws RDFHandlerException If the sink fails, the crawl is aborted.
+	 */
+	public void crawl(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, boolean loadAndCache, final RDFHandler sink, Set<URI> visited) throws RDFHandlerException {
+		if (sink == null) {
+			throw new IllegalArgumentException("Sink must not be null");
+		}
+		final StatementHashSet seen = new StatementHashSet();
+		traverse(resources, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, depth, loadAndCache, visited, null, new GraphHandler() {
+			@Override
+			public void handle(URI resource, Model graph) throws RDFHandlerException {
+				for (Statement st : graph) {
+					if (seen.add(st)) {
+						sink.handleStatement(st);
+					}
+				}
+			}
+		}, null, executor.forPriority(PriorityExecutor.Priority.INTERACTIVE), null, null);
+	}
+
+	/**
+	 * Receives the graph of every visited resource. Called on the thread that started the crawl.
+	 */
+	interface GraphHandler {
+
+		void handle(URI resource, Model graph) throws RDFHandlerException;
+
+	}
+
+	/**
+	 * @param visited Receives all resources that have been looked up, including those that could not be loaded. May be null.
+	 * @param loaded Receives the resources that have been loaded, or expanded with their indexed links. May be null.
+	 * @param frontierLog Receives the traversal and may provide a checkpoint to resume from. May be null.
+	 * @param linkIndex Provides and receives the links of resources, only used without handler. May be null.
+	 */
+	private void traverse(Set<URI> resources, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth, boolean loadAndCache, Set<URI> visited, Set<URI> loaded, GraphHandler handler, CrawlJob job, Executor executor, FrontierLog frontierLog, LinkIndex linkIndex) throws RDFHandlerException {
+		if (resources == null) {
+			throw new IllegalArgumentException("Resources must not be null");
+		}
+		if (visited == null) {
+			visited = new HashSet<>();
+		}
+		// added to by the loading threads
+		Set<URI> loadedNow = ConcurrentHashMap.newKeySet();
+		Set<URI> frontier = new HashSet<>(resources);
+		int startLevel = 0;
+		Set<URI> nextFrontier = null;
+		FrontierLog.Checkpoint checkpoint = frontierLog != null ? frontierLog.getCheckpoint() : null;
+		if (checkpoint != null) {
+			// the level of the checkpoint has been logged already, only its pending resources are expanded
+			frontier = new HashSet<>(checkpoint.pending);
+			visited.addAll(checkpoint.visited);
+			// the pending resources are loaded again below
+			loadedNow.addAll(checkpoint.visited);
+			loadedNow.removeAll(checkpoint.failed);
+			loadedNow.removeAll(checkpoint.pending);
+			startLevel = checkpoint.level;
+			nextFrontier = checkpoint.next;
+		}
+
+		boolean completed = true;
+		for (int level = startLevel; level <= depth && (!frontier.isEmpty() || nextFrontier != null); level++) {
+			if (nextFrontier == null) {
+				frontier.removeAll(visited);
+				visited.addAll(frontier);
+				if (frontier.isEmpty()) {
+					break;
+				}
+				if (frontierLog != null) {
+					frontierLog.startLevel(level, frontier);
+				}
+			}
+			if (job != null) {
+				if (job.isCancelled()) {
+					log.info("Crawl cancelled on level " + level);
+					completed = false;
+					break;
+				}
+				job.visited.addAndGet(frontier.size());
+				job.queued.addAndGet(frontier.size());
+			}
+			log.debug("Expanding " + frontier.size() + " resource" + (frontier.size() == 1 ? "" : "s") + " on level " + level);
+
+			boolean followLinks = propertiesToFollow != null && level < depth;
+			try {
+				frontier = expand(frontier, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, loadAndCache, followLinks, handler, job, executor, nextFrontier, loadedNow, frontierLog, linkIndex);
+				nextFrontier = null;
+			} catch (InterruptedException e) {
+				log.warn("Crawl interrupted on level " + level);
+				Thread.currentThread().interrupt();
+				completed = false;
+				break;
+			}
+		}
+		if (frontierLog != null && completed) {
+			frontierLog.finished();
+		}
+		if (loaded != null) {
+			loaded.addAll(loadedNow);
+		}
+	}
+
+	/**
+	 * Loads all resources of a frontier concurrently and waits until the whole level is done.
+	 * The links of each graph are extracted as soon as it has been loaded, so that graphs do
+	 * not have to be kept until the level is complete.
+	 *
+	 * With a handler, the loading threads only hand the graphs over and the handler is called
+	 * on the calling thread. The handler may write to a client, and a slow client must not
+	 * hold up the threads that are shared with all other crawls. At most as many resources as
+	 * the executor runs in parallel are loading or waiting for the handler at a time.
+	 *
+	 * @param loaded Receives the resources that have been loaded or expanded with indexed links, must be thread-safe.
+	 * @return The frontier of the next level.
+	 */
+	private Set<URI> expand(Set<URI> frontier, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, boolean loadAndCache, boolean followLinks, GraphHandler handler, CrawlJob job, Executor executor, Set<URI> resumedNextFrontier, Set<URI> loaded, FrontierLog frontierLog, LinkIndex linkIndex) throws InterruptedException, RDFHandlerException {
+		final Set<URI> nextFrontier = ConcurrentHashMap.newKeySet();
+		if (resumedNextFrontier != null) {
+			nextFrontier.addAll(resumedNextFrontier);
+		}
+		List<URI> ordered = interleaveHosts(frontier);
+
+		if (handler != null) {
+			final BlockingQueue<Map.Entry<URI, Model>> handedOver = new LinkedBlockingQueue<>();
+			Iterator<URI> it = ordered.iterator();
+			int pending = 0;
+			while (true) {
+				while (it.hasNext() && pending < this.executor.parallelism && (job == null || !job.isCancelled())) {
+					final URI r = it.next();
+					load(r, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, loadAndCache, followLinks, job, executor, nextFrontier, loaded, frontierLog, null).
+							thenAccept(graph -> handedOver.add(new AbstractMap.SimpleImmutableEntry<>(r, graph)));
+					pending++;
+				}
+				if (pending == 0) {
+					break;
+				}
+				Map.Entry<URI, Model> e = handedOver.take();
+				pending--;
+				if (e.getValue() != null) {
+					handler.handle(e.getKey(), e.getValue());
+				}
+			}
+			return nextFrontier;
+		}
+
+		List<CompletableFuture<Model>> futures = new ArrayList<>(ordered.size());
+		// the index can only replace loading if nobody needs the graph itself
+		LinkIndex index = propertiesToFollow != null ? linkIndex : null;
+		for (URI r : ordered) {
+			if (job != null && job.isCancelled()) {
+				break;
+			}
+			Set<URI> indexed = index != null ? index.get(r) : null;
+			if (indexed != null) {
+				Set<URI> objects = followLinks ? indexed : Collections.<URI>emptySet();
+				if (job != null) {
+					job.queued.decrementAndGet();
+				}
+				nextFrontier.addAll(objects);
+				loaded.add(r);
+				if (frontierLog != null) {
+					frontierLog.expanded(r, objects);
+				}
+				continue;
+			}
+			futures.add(load(r, propertiesToFollow, followTuples, includeDestinations, includeLiteralLanguages, loadAndCache, followLinks, job, executor, nextFrontier, loaded, frontierLog, index));
+		}
+
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		} catch (ExecutionException e) {
+			// does not happen, failures are logged and swallowed in load()
+			log.error(e.getMessage());
+		}
+		return nextFrontier;
+	}
+
+	/**
+	 * Loads a resource and adds its links to the next frontier.
+	 *
+	 * @return A future that completes with the graph of the resource, or with null if it could not be loaded. Never completes exceptionally.
+	 */
+	private CompletableFuture<Model> load(final URI r, final Set<URI> propertiesToFollow, final Map<URI, URI> followTuples, final Set<String> includeDestinations, Set<String> includeLiteralLanguages, boolean loadAndCache, final boolean followLinks, final CrawlJob job, Executor executor, final Set<URI> nextFrontier, final Set<URI> loaded, final FrontierLog frontierLog, final LinkIndex index) {
+		return cache.loadResource(r, includeLiteralLanguages, loadAndCache, executor, job).whenComplete((graph, t) -> {
+			if (job != null) {
+				job.queued.decrementAndGet();
+				if (graph == null) {
+					job.failed.incrementAndGet();
+				}
+			}
+		}).thenApply(graph -> {
+			if (graph == null) {
+				if (frontierLog != null) {
+					frontierLog.failed(r);
+				}
+				return null;
+			}
+			Set<URI> objects = Collections.emptySet();
+			if (index != null) {
+				// links are indexed on every level, the last level is not necessarily the last one next time
+				// a fetched resource is modified when it is fetched, so the time is taken afterwards
+				Date indexedAt = new Date();
+				Set<URI> links = getLinks(r, graph, propertiesToFollow, followTuples, includeDestinations);
+				index.put(r, links, indexedAt);
+				if (followLinks) {
+					objects = links;
+				}
+			} else if (followLinks) {
+				objects = getLinks(r, graph, propertiesToFollow, followTuples, includeDestinations);
+			}
+			if (objects.size() > 0) {
+				log.debug("Crawling " + objects.size() + " resource" + (objects.size() == 1 ? "" : "s") + " linked from <" + r + ">: " + objects);
+				nextFrontier.addAll(objects);
+			}
+			loaded.add(r);
+			if (frontierLog != null) {
+				frontierLog.expanded(r, objects);
+			}
+			return graph;
+		}).exceptionally(t -> {
+			log.error("Unable to load <" + r + ">: " + t.getMessage());
+			return null;
+		});
+	}
+
+	/**
+	 * Orders the frontier so that consecutive resources belong to different hosts
+	 * whenever possible. Requests to the same host are throttled, so dispatching them
+	 * back to back would queue them behind a single rate limiter while other hosts
+	 * are idle.
+	 */
+	private List<URI> interleaveHosts(Set<URI> frontier) {
+		Map<String, LinkedList<URI>> byHost = new LinkedHashMap<>();
+		for (URI r : frontier) {
+			String host = CacheImpl.getHost(r);
+			LinkedList<URI> uris = byHost.get(host);
+			if (uris == null) {
+				uris = new LinkedList<>();
+				byHost.put(host, uris);
+			}
+			uris.add(r);
+		}
+		List<URI> result = new ArrayList<>(frontier.size());
+		while (!byHost.isEmpty()) {
+			Iterator<LinkedList<URI>> it = byHost.values().iterator();
+			while (it.hasNext()) {
+				LinkedList<URI> uris = it.next();
+				result.add(uris.removeFirst());
+				if (uris.isEmpty()) {
+					it.remove();
+				}
+			}
+		}
+		return result;
+	}
+
+	private Set<URI> getLinks(URI r, Model graph, Set<URI> propertiesToFollow, Map<URI, URI> followTuples, Set<String> includeDestinations) {
+		Set<URI> objects = new HashSet<>();
+		for (URI prop : propertiesToFollow) {
+			objects.addAll(ModelUtil.valueToURI(graph.filter(null, prop, null).objects()));
+		}
+		if (followTuples != null) {
+			objects.addAll(getMatchingSubjects(graph, followTuples));
+		}
+		objects = filterResources(objects, includeDestinations);
+		objects.remove(r);
+		return objects;
+	}
+
+	private Set<URI> filterResources(Set<URI> resources, Set<String> allowedPrefixes) {
+		if (resources == null || allowedPrefixes == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		if (allowedPrefixes.contains("*")) {
+			return resources;
+		}
+		Set<URI> result = new HashSet<>();
+		for (URI r : resources) {
+			for (String p : allowedPrefixes) {
+				if (r.stringValue().startsWith(p)) {
+					result.add(r);
+				}
+			}
+		}
+		return result;
+	}
+
+	private Set<URI> getMatchingSubjects(Model model, Map<URI, URI> tuplesPO) {
+		if (model == null || tuplesPO == null) {
+			throw new IllegalArgumentException();
+		}
+		Set<URI> result = new HashSet<>();
+		for (URI v : tuplesPO.keySet()) {
+			result.addAll(ModelUtil.resourceToURI(model.filter(null, v, tuplesPO.get(v)).subjects()));
+		}
+		return result;
+	}
+
+	/**
+	 * Set of statement hashes in an open addressing table of longs. Much smaller than a
+	 * set of statements, at the price of a negligible probability that a statement is
+	 * mistaken for another one with the same 64 bit hash.
+	 */
+	static class StatementHashSet {
+
+		private static HashFunction HASH = Hashing.murmur3_128();
+
+		private long[] table = new long[1024];
+
+		private int size;
+
+		/**
+		 * @return True if the statement has not been added before.
+		 */
+		boolean add(Statement st) {
+			long h = HASH.newHasher().
+					putString(st.getSubject().toString(), StandardCharsets.UTF_8).putByte((byte) 0).
+					putString(st.getPredicate().toString(), StandardCharsets.UTF_8).putByte((byte) 0).
+					putString(st.getObject().toString(), StandardCharsets.UTF_8).putByte((byte) 0).
+					putString(String.valueOf(st.getContext()), StandardCharsets.UTF_8).
+					hash().asLong();
+			if (h == 0) {
+				// 0 marks empty slots
+				h = 1;
+			}
+			if ((size + 1) * 2 > table.length) {
+				long[] old = table;
+				table = new long[old.length * 2];
+				for (long o : old) {
+					if (o != 0) {
+						insert(table, o);
+					}
+				}
+			}
+			if (insert(table, h)) {
+				size++;
+				return true;
+			}
+			return false;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private static boolean insert(long[] table, long h) {
+			int mask = table.length - 1;
+			int i = (int) (h ^ (h >>> 32)) & mask;
+			while (table[i] != 0) {
+				if (table[i] == h) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			table[i] = h;
+			return true;
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.hash.Hashing;
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.cache.ResultCache;
+import org.entrystore.ldcache.util.Properties;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Append-only log of the traversal of a databundle, used to resume population after a
+ * restart instead of starting over from the root resources.
+ *
+ * The log starts with a fingerprint of the databundle's configuration, followed by one
+ * line per event:
+ *
+ * <pre>
+ * C fingerprint   configuration of the databundle
+ * L level         a new level starts, followed by its frontier
+ * F uri           a resource of the frontier of the current level
+ * N uri           a link to be followed on the next level
+ * D uri           a resource of the current level has been expanded
+ * U uri           a resource of the current level could not be loaded
+ * E               the population has been completed
+ * </pre>
+ *
+ * Links of a resource are written before the resource is marked as expanded, so that
+ * no link is lost if the process stops in between; at worst a resource is expanded a
+ * second time. Lines are flushed as soon as they have been written, a truncated last
+ * line is ignored. The log is only synced to disk at level boundaries: if the operating
+ * system crashes, the progress within the current level may be lost, and the level is
+ * then traversed again from the frontier that was synced.
+ *
+ * @author Hannes Ebner
+ */
+public class FrontierLog {
+
+	static Logger log = Logger.getLogger(FrontierLog.class);
+
+	/**
+	 * The state of an interrupted population.
+	 */
+	public static class Checkpoint {
+
+		int level;
+
+		Set<URI> visited = new HashSet<>();
+
+		Set<URI> failed = new HashSet<>();
+
+		Set<URI> pending = new HashSet<>();
+
+		Set<URI> next = new HashSet<>();
+
+	}
+
+	File file;
+
+	String fingerprint;
+
+	FileOutputStream out;
+
+	Writer writer;
+
+	Checkpoint checkpoint;
+
+	/**
+	 * @param file The log file, it is created if it does not exist.
+	 * @param fingerprint The fingerprint of the databundle's configuration, see fingerprint().
+	 */
+	public FrontierLog(File file, String fingerprint) {
+		if (file == null || fingerprint == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.file = file;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Reads the existing log and opens it for appending. If the log belongs to a
+	 * population that has been completed or to a different configuration, a new log
+	 * is started.
+	 */
+	public synchronized void open() throws IOException {
+		checkpoint = null;
+		if (file.exists()) {
+			checkpoint = replay();
+		}
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Unable to create directory " + parent);
+		}
+		if (checkpoint != null && !endsWithNewline()) {
+			// drops a partially written line, it has been ignored by the replay
+			truncateAfterLastNewline();
+		}
+		out = new FileOutputStream(file, checkpoint != null);
+		writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		if (checkpoint == null) {
+			write("C " + fingerprint);
+		} else {
+			log.info("Resuming population from " + file + " on level " + checkpoint.level + " with " + checkpoint.pending.size() + " pending resource" + (checkpoint.pending.size() == 1 ? "" : "s"));
+		}
+	}
+
+	/**
+	 * @return The state of the interrupted population to resume, or null if the
+	 * population has to start from the root resources.
+	 */
+	public Checkpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	public synchronized void startLevel(int level, Set<URI> frontier) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("L ").append(level);
+		for (URI r : frontier) {
+			sb.append("\nF ").append(r.stringValue());
+		}
+		write(sb.toString());
+		sync();
+	}
+
+	/**
+	 * @param links The links of the resource that are followed on the next level.
+	 */
+	public synchronized void expanded(URI r, Set<URI> links) {
+		StringBuilder sb = new StringBuilder();
+		for (URI link : links) {
+			sb.append("N ").append(link.stringValue()).append('\n');
+		}
+		sb.append("D ").append(r.stringValue());
+		write(sb.toString());
+	}
+
+	/**
+	 * Marks a resource as expanded without links because it could not be loaded.
+	 */
+	public synchronized void failed(URI r) {
+		write("U " + r.stringValue());
+	}
+
+	public synchronized void finished() {
+		write("E");
+		sync();
+	}
+
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error(e.getMessage());
+			}
+			writer = null;
+			out = null;
+		}
+	}
+
+	private void write(String lines) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write(lines);
+			writer.write('\n');
+			writer.flush();
+		} catch (IOException e) {
+			// population goes on without log, it just cannot be resumed
+			log.error("Unable to write to " + file + ", disabling frontier log: " + e.getMessage());
+			close();
+		}
+	}
+
+	/**
+	 * Forces the written lines to disk.
+	 */
+	private void sync() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			out.getFD().sync();
+		} catch (IOException e) {
+			log.error("Unable to sync " + file + ", disabling frontier log: " + e.getMessage());
+			close();
+		}
+	}
+
+	private boolean endsWithNewline() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(raf.length() - 1);
+			return raf.read() == '\n';
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void truncateAfterLastNewline() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long pos = raf.length();
+			while (pos > 0) {
+				raf.seek(pos - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				pos--;
+			}
+			raf.setLength(pos);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private Checkpoint replay() throws IOException {
+		ValueFactory vf = Properties.getValueFactory();
+		Checkpoint cp = null;
+		Set<URI> done = new HashSet<>();
+		boolean finished = false;
+		boolean terminated = file.length() == 0 || endsWithNewline();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.equals("C " + fingerprint)) {
+				log.info("Configuration has changed since " + file + " was written, not resuming");
+				return null;
+			}
+			String next = reader.readLine();
+			while ((line = next) != null) {
+				next = reader.readLine();
+				if (next == null && !terminated) {
+					// the last line has been written partially and may look valid nonetheless
+					log.debug("Skipping partially written line in " + file + ": " + line);
+					break;
+				}
+				if (line.length() < 1 || (line.length() > 1 && line.charAt(1) != ' ')) {
+					continue;
+				}
+				String value = line.length() > 2 ? line.substring(2) : null;
+				try {
+					switch (line.charAt(0)) {
+						case 'L':
+							if (cp == null) {
+								cp = new Checkpoint();
+							}
+							cp.level = Integer.parseInt(value);
+							cp.pending.clear();
+							cp.next.clear();
+							done.clear();
+							break;
+						case 'F':
+							if (cp != null && value != null) {
+								URI r = vf.createURI(value);
+								cp.pending.add(r);
+								cp.visited.add(r);
+							}
+							break;
+						case 'N':
+							if (cp != null && value != null) {
+								cp.next.add(vf.createURI(value));
+							}
+							break;
+						case 'D':
+							if (cp != null && value != null) {
+								done.add(vf.createURI(value));
+							}
+							break;
+						case 'U':
+							if (cp != null && value != null) {
+								URI r = vf.createURI(value);
+								done.add(r);
+								cp.failed.add(r);
+							}
+							break;
+						case 'E':
+							finished = true;
+							break;
+						default:
+							break;
+					}
+				} catch (IllegalArgumentException e) {
+					log.debug("Skipping invalid line in " + file + ": " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (cp == null || finished) {
+			return null;
+		}
+		cp.pending.removeAll(done);
+		return cp;
+	}
+
+	/**
+	 * @return A file name for the log of a databundle. The name contains a hash of the
+	 * databundle name, so that names that only differ in replaced characters do not share a log.
+	 */
+	public static String getFileName(String databundleName) {
+		String hash = Hashing.sha256().hashString(databundleName, StandardCharsets.UTF_8).toString().substring(0, 8);
+		return databundleName.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + hash + ".frontier";
+	}
+
+	/**
+	 * @return A fingerprint of everything that influences the traversal of a databundle.
+	 */
+	public static String fingerprint(Set<URI> resources, Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations, Set<String> includeLiteralLanguages, int depth) {
+		Set<String> roots = new TreeSet<>();
+		if (resources != null) {
+			for (URI r : resources) {
+				roots.add(r.stringValue());
+			}
+		}
+		String key = roots + "\n" + ResultCache.createKey(null, follow, followTuples, includeDestinations, includeLiteralLanguages, depth, null);
+		return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory cache of the graphs of cached resources, in front of the repository.
+ *
+ * The cache is bounded by the total number of triples and evicts the least recently
+ * used graphs first. Cached graphs are unmodifiable copies.
+ *
+ * Graphs that are loaded from the repository while a write to the same resource is
+ * being committed must not end up in the cache. Callers therefore fetch the current
+ * generation of the resource before they read from the repository and pass it to put(),
+ * which discards the graph if the resource has been invalidated in between. Generations
+ * are kept per stripe of resources, so that writes to other resources, e.g. during
+ * population, do not keep graphs out of the cache.
+ *
+ * @author Hannes Ebner
+ */
+public class GraphCache {
+
+	private Cache<URI, Model> cache;
+
+	private static final int STRIPES = 4096;
+
+	private AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+	/**
+	 * @param maxTriples The maximum number of triples of all cached graphs together.
+	 */
+	public GraphCache(long maxTriples) {
+		cache = CacheBuilder.newBuilder().
+				maximumWeight(maxTriples).
+				weigher(new Weigher<URI, Model>() {
+					@Override
+					public int weigh(URI key, Model value) {
+						return Math.max(1, value.size());
+					}
+				}).
+				recordStats().
+				build();
+	}
+
+	/**
+	 * @return The unmodifiable graph of a resource, or null if it is not in the cache.
+	 */
+	public Model get(URI resourceURI) {
+		return cache.getIfPresent(resourceURI);
+	}
+
+	public long getGeneration(URI resourceURI) {
+		return generations.get(stripe(resourceURI));
+	}
+
+	/**
+	 * Adds a graph to the cache unless the resource has been invalidated since the given generation.
+	 */
+	public void put(URI resourceURI, Model graph, long generation) {
+		int stripe = stripe(resourceURI);
+		if (generations.get(stripe) != generation) {
+			return;
+		}
+		cache.put(resourceURI, new LinkedHashModel(graph).unmodifiable());
+		// an invalidation may have happened after the check above
+		if (generations.get(stripe) != generation) {
+			cache.invalidate(resourceURI);
+		}
+	}
+
+	public void invalidate(Collection<URI> resourceURIs) {
+		for (URI r : resourceURIs) {
+			generations.incrementAndGet(stripe(r));
+		}
+		cache.invalidateAll(resourceURIs);
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	private static int stripe(URI resourceURI) {
+		int h = resourceURI.hashCode();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+}
\ No newline at end of file
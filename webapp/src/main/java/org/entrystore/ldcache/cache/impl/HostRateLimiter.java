@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.http.HttpTimeoutException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host request rate limits that adapt to how the hosts respond.
+ *
+ * The rate of a host follows an additive increase/multiplicative decrease scheme: every
+ * successful response raises the rate by roughly the configured increase per second,
+ * whereas 429 and 503 responses, timeouts and a latency that is considerably higher than
+ * the host's baseline latency reduce it by the configured factor, at most once per
+ * second. A Retry-After header pauses all requests to the host for the requested time.
+ *
+ * Hosts can be given a fixed rate or their own bounds in the configuration.
+ *
+ * Requests reserve the next free slot of their host, which is 1/rate seconds after
+ * the previously reserved one. Each caller therefore waits exactly once and requests
+ * to the same host are sent in the order in which they have been reserved.
+ *
+ * @author Hannes Ebner
+ */
+public class HostRateLimiter {
+
+	static Logger log = Logger.getLogger(HostRateLimiter.class);
+
+	static class Host {
+
+		String name;
+
+		/**
+		 * The time in nanoseconds (System.nanoTime()) of the next slot that can be reserved.
+		 */
+		long nextFree = System.nanoTime();
+
+		volatile double rate;
+
+		double minRate;
+
+		double maxRate;
+
+		boolean adaptive;
+
+		/**
+		 * Moving average of the latency in milliseconds, or -1 if unknown.
+		 */
+		double latency = -1;
+
+		/**
+		 * Latency of the host when it is not under load, or -1 if unknown.
+		 */
+		double baseline = -1;
+
+		volatile long pausedUntil;
+
+		long lastDecrease;
+
+		Host(String name, double rate, double minRate, double maxRate, boolean adaptive) {
+			this.name = name;
+			this.rate = rate;
+			this.minRate = minRate;
+			this.maxRate = maxRate;
+			this.adaptive = adaptive;
+		}
+
+	}
+
+	private static long DECREASE_INTERVAL = 1000;
+
+	private Cache<String, Host> hosts = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).maximumSize(1000).build();
+
+	private Map<String, JSONObject> overrides = new HashMap<>();
+
+	double defaultRate = 2.0;
+
+	boolean adaptive = true;
+
+	double minRate = 0.2;
+
+	double maxRate = 50.0;
+
+	double increase = 1.0;
+
+	double decrease = 0.5;
+
+	double latencyFactor = 3.0;
+
+	/**
+	 * @param defaultRate The initial rate of hosts without an override, in requests per second.
+	 * @param adaptiveConfig The adaptive rate limit section of the configuration. May be null.
+	 * @param hostConfig Overrides per host, either a fixed rate or an object with rate, minRate,
+	 *                   maxRate and adaptive. May be null.
+	 */
+	public HostRateLimiter(double defaultRate, JSONObject adaptiveConfig, JSONObject hostConfig) throws JSONException {
+		this.defaultRate = defaultRate;
+		if (adaptiveConfig != null) {
+			if (adaptiveConfig.has("enabled")) {
+				adaptive = adaptiveConfig.getBoolean("enabled");
+			}
+			if (adaptiveConfig.has("minRate")) {
+				minRate = adaptiveConfig.getDouble("minRate");
+			}
+			if (adaptiveConfig.has("maxRate")) {
+				maxRate = adaptiveConfig.getDouble("maxRate");
+			}
+			if (adaptiveConfig.has("increase")) {
+				increase = adaptiveConfig.getDouble("increase");
+			}
+			if (adaptiveConfig.has("decrease")) {
+				decrease = adaptiveConfig.getDouble("decrease");
+			}
+			if (adaptiveConfig.has("latencyFactor")) {
+				latencyFactor = adaptiveConfig.getDouble("latencyFactor");
+			}
+		}
+		if (hostConfig != null) {
+			Iterator it = hostConfig.keys();
+			while (it.hasNext()) {
+				String host = (String) it.next();
+				JSONObject override = hostConfig.optJSONObject(host);
+				if (override == null) {
+					// a plain number is a fixed rate
+					override = new JSONObject();
+					override.put("rate", hostConfig.getDouble(host));
+					override.put("adaptive", false);
+				}
+				overrides.put(host, override);
+			}
+		}
+	}
+
+	/**
+	 * Reserves the next free slot for a request to the host without blocking. Slots
+	 * do not start before a pause requested by Retry-After has ended.
+	 *
+	 * @return The time in milliseconds after which the request may be sent, zero if it may be sent right away.
+	 */
+	public long reserve(String host) {
+		Host h = getHost(host);
+		long pause = getPause(h);
+		synchronized (h) {
+			long now = System.nanoTime();
+			long slot = Math.max(now, h.nextFree);
+			if (pause > 0) {
+				slot = Math.max(slot, now + TimeUnit.MILLISECONDS.toNanos(pause));
+			}
+			h.nextFree = slot + (long) (TimeUnit.SECONDS.toNanos(1) / h.rate);
+			return TimeUnit.NANOSECONDS.toMillis(slot - now);
+		}
+	}
+
+	/**
+	 * @return The remaining time in milliseconds of a pause requested by Retry-After, or zero.
+	 */
+	public long getPause(String host) {
+		return getPause(getHost(host));
+	}
+
+	private long getPause(Host h) {
+		return Math.max(0, h.pausedUntil - System.currentTimeMillis());
+	}
+
+	/**
+	 * Adapts the rate of a host to the outcome of a request.
+	 *
+	 * @param status The status code of the response, or -1 if the request failed.
+	 * @param latency The time until the response was received, in milliseconds.
+	 * @param retryAfter The delay requested by a Retry-After header in milliseconds, or -1.
+	 * @param t The reason why the request failed, or null.
+	 */
+	public void observe(String host, int status, long latency, long retryAfter, Throwable t) {
+		if (host == null) {
+			return;
+		}
+		Host h = getHost(host);
+		long now = System.currentTimeMillis();
+		if (retryAfter > 0) {
+			h.pausedUntil = Math.max(h.pausedUntil, now + retryAfter);
+			log.info("Pausing requests to " + host + " for " + retryAfter + " ms as requested by Retry-After");
+		}
+		if (!h.adaptive) {
+			return;
+		}
+		synchronized (h) {
+			boolean overloaded = status == 429 || status == 503 || t instanceof HttpTimeoutException;
+			if (status > 0 && status < 400) {
+				h.latency = h.latency < 0 ? latency : 0.8 * h.latency + 0.2 * latency;
+				// the baseline follows the latency down immediately, but up only slowly
+				h.baseline = h.baseline < 0 ? h.latency : Math.min(h.latency, h.baseline + (h.latency - h.baseline) * 0.01);
+				overloaded = h.latency > latencyFactor * h.baseline;
+			}
+			double rate = h.rate;
+			if (overloaded) {
+				if (now - h.lastDecrease >= DECREASE_INTERVAL) {
+					rate = Math.max(h.minRate, h.rate * decrease);
+					h.lastDecrease = now;
+				}
+			} else if (status > 0 && status < 400) {
+				rate = Math.min(h.maxRate, h.rate + increase / h.rate);
+			}
+			if (rate != h.rate) {
+				if (rate < h.rate) {
+					log.debug("Reducing request rate for " + host + " to " + rate + " per second");
+				}
+				h.rate = rate;
+			}
+		}
+	}
+
+	/**
+	 * @return The current rate in requests per second of all hosts that have been accessed recently.
+	 */
+	public Map<String, Double> getRates() {
+		Map<String, Double> result = new TreeMap<>();
+		for (Host h : hosts.asMap().values()) {
+			result.put(h.name, h.rate);
+		}
+		return result;
+	}
+
+	private Host getHost(final String host) {
+		try {
+			return hosts.get(host != null ? host : "", new Callable<Host>() {
+				@Override
+				public Host call() throws Exception {
+					return createHost(host);
+				}
+			});
+		} catch (ExecutionException e) {
+			log.error(e.getMessage());
+			return createHost(host);
+		}
+	}
+
+	private Host createHost(String host) {
+		JSONObject override = host != null ? overrides.get(host) : null;
+		if (override == null) {
+			return new Host(host, defaultRate, minRate, maxRate, adaptive);
+		}
+		double rate = override.optDouble("rate", defaultRate);
+		return new Host(host, rate, override.optDouble("minRate", Math.min(minRate, rate)), override.optDouble("maxRate", Math.max(maxRate, rate)), override.optBoolean("adaptive", adaptive));
+	}
+
+}
\ No newline at end of file
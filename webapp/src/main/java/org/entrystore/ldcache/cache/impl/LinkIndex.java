@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.hash.Hashing;
+import org.entrystore.ldcache.cache.ResultCache;
+import org.openrdf.model.URI;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outgoing links of cached resources under the follow rules of a databundle.
+ *
+ * Every entry records when its links were extracted. An entry is only valid as long as
+ * the resource has not been modified since then; with a valid entry the crawler can
+ * expand a resource without loading and parsing its graph.
+ *
+ * @author Hannes Ebner
+ */
+public class LinkIndex {
+
+	static class Entry {
+
+		Set<URI> links;
+
+		Date indexed;
+
+		Entry(Set<URI> links, Date indexed) {
+			this.links = links;
+			this.indexed = indexed;
+		}
+
+	}
+
+	Map<URI, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The links of the resource, or null if the resource is not indexed.
+	 */
+	public Set<URI> get(URI r) {
+		Entry e = entries.get(r);
+		return e != null ? e.links : null;
+	}
+
+	/**
+	 * @param indexed The time after the graph from which the links were extracted was loaded.
+	 */
+	public void put(URI r, Set<URI> links, Date indexed) {
+		entries.put(r, new Entry(links, indexed));
+	}
+
+	public Date getIndexed(URI r) {
+		Entry e = entries.get(r);
+		return e != null ? e.indexed : null;
+	}
+
+	/**
+	 * Removes all entries of resources that are not cached anymore or that have been
+	 * modified after their links were extracted.
+	 *
+	 * @param modified The modification dates of all cached resources.
+	 * @return The number of removed entries.
+	 */
+	public int retainValid(Map<URI, Date> modified) {
+		int removed = 0;
+		Iterator<Map.Entry<URI, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<URI, Entry> e = it.next();
+			Date m = modified.get(e.getKey());
+			if (m == null || m.after(e.getValue().indexed)) {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes all entries of resources that are not in the given collection.
+	 */
+	public void retainAll(Collection<URI> resources) {
+		entries.keySet().retainAll(resources);
+	}
+
+	public Set<URI> getResources() {
+		return entries.keySet();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return A fingerprint of the follow rules. Indexed links are only valid for the
+	 * rules they were extracted with; the roots, the depth and the language whitelist
+	 * do not influence the links of a resource.
+	 */
+	public static String fingerprint(Set<URI> follow, Map<URI, URI> followTuples, Set<String> includeDestinations) {
+		String key = ResultCache.createKey(null, follow, followTuples, includeDestinations, null, 0, null);
+		return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.util.HttpUtil;
+import org.entrystore.ldcache.util.NS;
+import org.entrystore.ldcache.util.Properties;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers URIs that could not be fetched or parsed, so that they are not fetched again
+ * before their backoff window has passed.
+ *
+ * The backoff window depends on the class of the failure and doubles with every
+ * consecutive failure of the same class, up to a maximum. A successful fetch removes
+ * the entry. Entries are persisted in a named graph of their own and are loaded again
+ * at startup. They are written through the repository writer, so that they are committed
+ * in batches together with the cached resources.
+ *
+ * An entry whose backoff window has passed more than the maximum backoff ago is
+ * dropped, the URI is then treated as if it had never failed.
+ *
+ * @author Hannes Ebner
+ */
+public class NegativeCache {
+
+	static Logger log = Logger.getLogger(NegativeCache.class);
+
+	static URI CONTEXT = Properties.getValueFactory().createURI(NS.ldc, "negativeCache");
+
+	private static final long PRUNE_INTERVAL = 3600 * 1000;
+
+	public enum FailureClass {
+
+		/**
+		 * The connection failed or timed out.
+		 */
+		CONNECTION_ERROR(300),
+
+		/**
+		 * A status code of 500 or higher.
+		 */
+		SERVER_ERROR(300),
+
+		/**
+		 * A status code between 400 and 499.
+		 */
+		CLIENT_ERROR(3600),
+
+		/**
+		 * The media type is missing or cannot be parsed as RDF.
+		 */
+		UNSUPPORTED_MEDIA_TYPE(86400),
+
+		/**
+		 * The body is empty or could not be parsed.
+		 */
+		PARSE_ERROR(3600);
+
+		long defaultBackoff;
+
+		FailureClass(long defaultBackoff) {
+			this.defaultBackoff = defaultBackoff;
+		}
+
+	}
+
+	static class Entry {
+
+		FailureClass failureClass;
+
+		int failures;
+
+		Date retryAfter;
+
+		Entry(FailureClass failureClass, int failures, Date retryAfter) {
+			this.failureClass = failureClass;
+			this.failures = failures;
+			this.retryAfter = retryAfter;
+		}
+
+	}
+
+	Repository repository;
+
+	RepositoryWriter writer;
+
+	Map<URI, Entry> entries = new ConcurrentHashMap<>();
+
+	Map<FailureClass, Long> backoffs = new EnumMap<>(FailureClass.class);
+
+	long maxBackoff = 604800;
+
+	volatile long lastPruned;
+
+	public NegativeCache(Repository repository, RepositoryWriter writer, JSONObject config) throws JSONException {
+		if (repository == null || writer == null || config == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.repository = repository;
+		this.writer = writer;
+		for (FailureClass fc : FailureClass.values()) {
+			backoffs.put(fc, fc.defaultBackoff);
+		}
+		if (config.has("backoff")) {
+			JSONObject backoffConfig = config.getJSONObject("backoff");
+			for (FailureClass fc : FailureClass.values()) {
+				if (backoffConfig.has(fc.name())) {
+					backoffs.put(fc, backoffConfig.getLong(fc.name()));
+				}
+			}
+		}
+		if (config.has("maxBackoff")) {
+			maxBackoff = config.getLong("maxBackoff");
+		}
+		load();
+		prune();
+		log.info("Loaded " + entries.size() + " entr" + (entries.size() == 1 ? "y" : "ies") + " of negative cache");
+	}
+
+	/**
+	 * @return True if the URI has failed before and its backoff window has not passed yet.
+	 */
+	public boolean isBlocked(URI r) {
+		Entry e = entries.get(r);
+		return e != null && e.retryAfter.getTime() > System.currentTimeMillis();
+	}
+
+	/**
+	 * Records a failure and extends the backoff window of the URI.
+	 */
+	public void failed(URI r, FailureClass failureClass) {
+		Entry previous = entries.get(r);
+		int failures = 1;
+		if (previous != null && previous.failureClass == failureClass) {
+			failures = previous.failures + 1;
+		}
+		long backoff = backoffs.get(failureClass);
+		// the shift is capped to avoid an overflow, the result is capped by maxBackoff anyway
+		backoff = Math.min(backoff << Math.min(failures - 1, 30), maxBackoff);
+		Entry e = new Entry(failureClass, failures, new Date(System.currentTimeMillis() + backoff * 1000));
+		entries.put(r, e);
+		log.info("Not fetching <" + r + "> again for " + backoff + " seconds after " + failures + " failure" + (failures == 1 ? "" : "s") + " (" + failureClass + ")");
+		persist(Collections.singleton(r));
+		if (System.currentTimeMillis() - lastPruned > PRUNE_INTERVAL) {
+			prune();
+		}
+	}
+
+	/**
+	 * Removes the URI from the negative cache.
+	 */
+	public void succeeded(URI r) {
+		if (entries.remove(r) != null) {
+			persist(Collections.singleton(r));
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The class of the failure that caused a response to not be cached.
+	 */
+	public static FailureClass classify(HttpResponse<byte[]> response) {
+		if (response.statusCode() >= 500) {
+			return FailureClass.SERVER_ERROR;
+		}
+		if (response.statusCode() >= 400) {
+			return FailureClass.CLIENT_ERROR;
+		}
+		if (HttpUtil.getParserFormat(response) == null) {
+			return FailureClass.UNSUPPORTED_MEDIA_TYPE;
+		}
+		return FailureClass.PARSE_ERROR;
+	}
+
+	private void load() {
+		Map<URI, String> failureClasses = new HashMap<>();
+		Map<URI, Integer> failures = new HashMap<>();
+		Map<URI, Date> retryAfter = new HashMap<>();
+		RepositoryConnection rc = null;
+		try {
+			rc = repository.getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(null, null, null, false, CONTEXT);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (!(s.getSubject() instanceof URI) || !(s.getObject() instanceof Literal)) {
+					continue;
+				}
+				URI r = (URI) s.getSubject();
+				Literal l = (Literal) s.getObject();
+				if (Properties.ldcFailureClass.equals(s.getPredicate())) {
+					failureClasses.put(r, l.stringValue());
+				} else if (Properties.ldcFailures.equals(s.getPredicate())) {
+					failures.put(r, l.intValue());
+				} else if (Properties.ldcRetryAfter.equals(s.getPredicate())) {
+					retryAfter.put(r, l.calendarValue().toGregorianCalendar().getTime());
+				}
+			}
+			rr.close();
+		} catch (RepositoryException | IllegalArgumentException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		for (Map.Entry<URI, String> e : failureClasses.entrySet()) {
+			URI r = e.getKey();
+			if (failures.containsKey(r) && retryAfter.containsKey(r)) {
+				try {
+					entries.put(r, new Entry(FailureClass.valueOf(e.getValue()), failures.get(r), retryAfter.get(r)));
+				} catch (IllegalArgumentException iae) {
+					log.warn("Ignoring unknown failure class of <" + r + ">: " + e.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all entries whose backoff window has passed more than maxBackoff seconds ago.
+	 */
+	void prune() {
+		lastPruned = System.currentTimeMillis();
+		long threshold = lastPruned - maxBackoff * 1000;
+		Set<URI> pruned = new HashSet<>();
+		for (Map.Entry<URI, Entry> e : entries.entrySet()) {
+			if (e.getValue().retryAfter.getTime() < threshold && entries.remove(e.getKey(), e.getValue())) {
+				pruned.add(e.getKey());
+			}
+		}
+		if (!pruned.isEmpty()) {
+			log.info("Dropping " + pruned.size() + " expired entr" + (pruned.size() == 1 ? "y" : "ies") + " of negative cache");
+			persist(pruned);
+		}
+	}
+
+	/**
+	 * Queues the stored entries of the URIs to be replaced with the entries in memory at
+	 * the time of the commit, so that concurrent changes to an entry cannot be committed
+	 * out of order.
+	 */
+	private void persist(final Set<URI> uris) {
+		writer.update(CONTEXT, new RepositoryWriter.Update() {
+			@Override
+			public void apply(RepositoryConnection rc) throws RepositoryException {
+				ValueFactory vf = rc.getValueFactory();
+				for (URI r : uris) {
+					rc.remove(r, null, null, CONTEXT);
+					Entry e = entries.get(r);
+					if (e != null) {
+						rc.add(r, Properties.ldcFailureClass, vf.createLiteral(e.failureClass.name()), CONTEXT);
+						rc.add(r, Properties.ldcFailures, vf.createLiteral(e.failures), CONTEXT);
+						rc.add(r, Properties.ldcRetryAfter, vf.createLiteral(e.retryAfter), CONTEXT);
+					}
+				}
+			}
+		}).whenComplete((v, t) -> {
+			if (t != null) {
+				log.error("Unable to persist negative cache: " + t.getMessage());
+			}
+		});
+	}
+
+}
\ No newline at end of file
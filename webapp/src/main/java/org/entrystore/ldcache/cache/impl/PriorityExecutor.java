@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs tasks of different priority classes on a shared executor.
+ *
+ * At most parallelism tasks are handed to the underlying executor at a time, the others
+ * wait in one queue per class. When a slot becomes free, the next task is picked by
+ * stride scheduling: every class advances a virtual clock by 1/weight per task and the
+ * non-empty class with the earliest clock goes next. When all classes have work queued,
+ * each class therefore gets a share of the slots proportional to its weight, i.e. bulk
+ * work is slowed down but never starved, and a class that has been idle starts at the
+ * current clock instead of catching up on the slots it did not use.
+ *
+ * @author Hannes Ebner
+ */
+public class PriorityExecutor {
+
+	static Logger log = Logger.getLogger(PriorityExecutor.class);
+
+	public enum Priority {
+
+		/**
+		 * Requests that a client is waiting for, e.g. merged graphs.
+		 */
+		INTERACTIVE(8),
+
+		/**
+		 * Ingestion that has been requested by a client, e.g. POSTed jobs.
+		 */
+		ON_DEMAND(4),
+
+		/**
+		 * Background work, e.g. databundle population and refreshes.
+		 */
+		BULK(1);
+
+		int defaultWeight;
+
+		Priority(int defaultWeight) {
+			this.defaultWeight = defaultWeight;
+		}
+
+	}
+
+	ExecutorService delegate;
+
+	int parallelism;
+
+	int running;
+
+	Map<Priority, Deque<Runnable>> queues = new EnumMap<>(Priority.class);
+
+	Map<Priority, Double> strides = new EnumMap<>(Priority.class);
+
+	Map<Priority, Double> passes = new EnumMap<>(Priority.class);
+
+	Map<Priority, Executor> views = new EnumMap<>(Priority.class);
+
+	double clock;
+
+	/**
+	 * @param delegate The executor that runs the tasks.
+	 * @param parallelism The maximum number of tasks that are handed to the delegate at a time.
+	 * @param weights The weights of the priority classes, keyed by their names. May be null.
+	 */
+	public PriorityExecutor(ExecutorService delegate, int parallelism, JSONObject weights) throws JSONException {
+		if (delegate == null) {
+			throw new IllegalArgumentException("Executor must not be null");
+		}
+		this.delegate = delegate;
+		this.parallelism = Math.max(1, parallelism);
+		for (final Priority p : Priority.values()) {
+			double weight = p.defaultWeight;
+			if (weights != null && weights.has(p.name())) {
+				weight = weights.getDouble(p.name());
+			}
+			if (weight <= 0) {
+				throw new IllegalArgumentException("Weight of " + p + " must be positive");
+			}
+			queues.put(p, new ArrayDeque<>());
+			strides.put(p, 1.0 / weight);
+			passes.put(p, 0.0);
+			views.put(p, new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					submit(p, command);
+				}
+			});
+		}
+		log.info("Running up to " + this.parallelism + " tasks at a time with weights " + getWeights());
+	}
+
+	/**
+	 * @return An executor that queues its tasks in the given priority class.
+	 */
+	public Executor forPriority(Priority priority) {
+		return views.get(priority);
+	}
+
+	/**
+	 * @return The number of queued tasks per priority class.
+	 */
+	public synchronized Map<Priority, Integer> getQueued() {
+		Map<Priority, Integer> result = new EnumMap<>(Priority.class);
+		for (Map.Entry<Priority, Deque<Runnable>> e : queues.entrySet()) {
+			result.put(e.getKey(), e.getValue().size());
+		}
+		return result;
+	}
+
+	private synchronized void submit(Priority priority, Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		Deque<Runnable> queue = queues.get(priority);
+		if (queue.isEmpty()) {
+			// an idle class does not get credit for the time it has not used
+			passes.put(priority, Math.max(passes.get(priority), clock));
+		}
+		queue.add(command);
+		dispatch();
+	}
+
+	private synchronized void dispatch() {
+		while (running < parallelism) {
+			final Runnable next = poll();
+			if (next == null) {
+				return;
+			}
+			running++;
+			try {
+				delegate.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							next.run();
+						} finally {
+							completed();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				running--;
+				throw e;
+			}
+		}
+	}
+
+	private synchronized void completed() {
+		running--;
+		dispatch();
+	}
+
+	/**
+	 * @return The next task according to stride scheduling, or null if all queues are empty.
+	 */
+	private Runnable poll() {
+		Priority next = null;
+		for (Priority p : Priority.values()) {
+			if (!queues.get(p).isEmpty() && (next == null || passes.get(p) < passes.get(next))) {
+				next = p;
+			}
+		}
+		if (next == null) {
+			return null;
+		}
+		clock = passes.get(next);
+		passes.put(next, clock + strides.get(next));
+		return queues.get(next).poll();
+	}
+
+	private Map<Priority, Double> getWeights() {
+		Map<Priority, Double> result = new EnumMap<>(Priority.class);
+		for (Map.Entry<Priority, Double> e : strides.entrySet()) {
+			result.put(e.getKey(), 1.0 / e.getValue());
+		}
+		return result;
+	}
+
+}
\ No newline at end of file
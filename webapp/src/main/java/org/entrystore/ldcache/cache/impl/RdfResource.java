@@ -32,6 +32,9 @@ import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 /**
  * @author Hannes Ebner
@@ -46,6 +49,12 @@ public class RdfResource implements Resource {
 
 	Date modified;
 
+	String etag;
+
+	String lastModified;
+
+	String cacheControl;
+
 	public RdfResource(URI resourceURI, Model graph, Date modified) {
 		if (resourceURI == null || graph == null || modified == null) {
 			throw new IllegalArgumentException();
@@ -87,24 +96,69 @@ public class RdfResource implements Resource {
 		this.modified = new Date();
 	}
 
+	@Override
+	public String getETag() {
+		return etag;
+	}
+
+	@Override
+	public void setETag(String etag) {
+		this.etag = etag;
+	}
+
+	@Override
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	@Override
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	@Override
+	public String getCacheControl() {
+		return cacheControl;
+	}
+
+	@Override
+	public void setCacheControl(String cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
 	public static Resource loadFromRepository(Repository repository, URI resourceURI) {
+		return loadFromRepository(repository, resourceURI, true);
+	}
+
+	/**
+	 * @param includeGraph If false, only the resource's metadata (modification date and
+	 *                     validators) is loaded and the returned resource has an empty graph.
+	 */
+	public static Resource loadFromRepository(Repository repository, URI resourceURI, boolean includeGraph) {
 		if (repository == null || resourceURI == null) {
 			throw new IllegalArgumentException();
 		}
 		RepositoryConnection rc = null;
 		Resource result = null;
+		Lock lock = ContextLocks.readLock(resourceURI);
+		lock.lock();
 		try {
 			rc = repository.getConnection();
 			// get graph
-			RepositoryResult<Statement> rr = rc.getStatements(null, null, null, false, resourceURI);
-			Model resource = Iterations.addAll(rr, new LinkedHashModel());
+			Model resource = new LinkedHashModel();
+			if (includeGraph) {
+				Iterations.addAll(rc.getStatements(null, null, null, false, resourceURI), resource);
+			}
 			// get modification date
-			rr = rc.getStatements(resourceURI, Properties.dctModified, null, false);
+			RepositoryResult<Statement> rr = rc.getStatements(resourceURI, Properties.dctModified, null, false);
 			if (rr.hasNext()) {
 				Value modifiedValue = rr.next().getObject();
 				if (modifiedValue instanceof Literal) {
 					Date modified = ((Literal) modifiedValue).calendarValue().toGregorianCalendar().getTime();
 					result = new RdfResource(resourceURI, resource, modified);
+					result.setETag(getStringValue(rc, resourceURI, Properties.ldcETag));
+					result.setLastModified(getStringValue(rc, resourceURI, Properties.ldcLastModified));
+					result.setCacheControl(getStringValue(rc, resourceURI, Properties.ldcCacheControl));
 				}
 			} else {
 				log.error("Unable to load from repository (not found): " + resourceURI);
@@ -119,6 +173,7 @@ public class RdfResource implements Resource {
 					log.error(e.getMessage());
 				}
 			}
+			lock.unlock();
 		}
 		return result;
 	}
@@ -130,15 +185,14 @@ public class RdfResource implements Resource {
 		if (resource.getURI() == null || resource.getGraph() == null || resource.getModified() == null) {
 			throw new IllegalArgumentException("The resource properties must not be null");
 		}
-		synchronized (repository) {
+		Lock lock = ContextLocks.writeLock(resource.getURI());
+		lock.lock();
+		try {
 			RepositoryConnection rc = null;
 			try {
 				rc = repository.getConnection();
 				rc.begin();
-				rc.remove((org.openrdf.model.Resource) null, (URI) null, (Value) null, resource.getURI());
-				rc.add(resource.getGraph(), resource.getURI());
-				rc.remove(resource.getURI(), Properties.dctModified, null);
-				rc.add(resource.getURI(), Properties.dctModified, Properties.getValueFactory().createLiteral(resource.getModified()));
+				save(rc, resource);
 				rc.commit();
 			} catch (RepositoryException e) {
 				try {
@@ -156,6 +210,47 @@ public class RdfResource implements Resource {
 					}
 				}
 			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records that a cached resource has been revalidated without changes. The
+	 * modification date stays untouched, it is only updated when the graph changes.
+	 */
+	public static void updateValidated(Repository repository, URI resourceURI, Date validated) {
+		if (repository == null || resourceURI == null || validated == null) {
+			throw new IllegalArgumentException();
+		}
+		Lock lock = ContextLocks.writeLock(resourceURI);
+		lock.lock();
+		try {
+			RepositoryConnection rc = null;
+			try {
+				rc = repository.getConnection();
+				rc.begin();
+				rc.remove(resourceURI, Properties.ldcLastValidated, null);
+				rc.add(resourceURI, Properties.ldcLastValidated, Properties.getValueFactory().createLiteral(validated));
+				rc.commit();
+			} catch (RepositoryException e) {
+				try {
+					rc.rollback();
+				} catch (RepositoryException re) {
+					log.error(re.getMessage());
+				}
+				log.error(e.getMessage());
+			} finally {
+				if (rc != null) {
+					try {
+						rc.close();
+					} catch (RepositoryException e) {
+						log.error(e.getMessage());
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -163,13 +258,14 @@ public class RdfResource implements Resource {
 		if (repository == null || resourceURI == null) {
 			throw new IllegalArgumentException();
 		}
-		synchronized (repository) {
+		Lock lock = ContextLocks.writeLock(resourceURI);
+		lock.lock();
+		try {
 			RepositoryConnection rc = null;
 			try {
 				rc = repository.getConnection();
 				rc.begin();
-				rc.remove((org.openrdf.model.Resource) null, (URI) null, (Value) null, resourceURI);
-				rc.remove(resourceURI, Properties.dctModified, null);
+				remove(rc, resourceURI);
 				rc.commit();
 			} catch (RepositoryException e) {
 				try {
@@ -187,6 +283,8 @@ public class RdfResource implements Resource {
 					}
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -195,6 +293,8 @@ public class RdfResource implements Resource {
 			throw new IllegalArgumentException();
 		}
 		RepositoryConnection rc = null;
+		Lock lock = ContextLocks.readLock(resourceURI);
+		lock.lock();
 		try {
 			rc = repository.getConnection();
 			return rc.hasStatement(null, null, null, false, resourceURI);
@@ -208,8 +308,88 @@ public class RdfResource implements Resource {
 					log.error(e.getMessage());
 				}
 			}
+			lock.unlock();
 		}
 		return false;
 	}
 
+	/**
+	 * @return The modification dates of all cached resources.
+	 */
+	public static Map<URI, Date> loadModified(Repository repository) {
+		if (repository == null) {
+			throw new IllegalArgumentException();
+		}
+		Map<URI, Date> result = new HashMap<>();
+		RepositoryConnection rc = null;
+		try {
+			rc = repository.getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(null, Properties.dctModified, null, false, (org.openrdf.model.Resource) null);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI && s.getObject() instanceof Literal) {
+					result.put((URI) s.getSubject(), ((Literal) s.getObject()).calendarValue().toGregorianCalendar().getTime());
+				}
+			}
+			rr.close();
+		} catch (RepositoryException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces a resource's graph and metadata within the connection's current transaction.
+	 */
+	static void save(RepositoryConnection rc, Resource resource) throws RepositoryException {
+		rc.remove((org.openrdf.model.Resource) null, (URI) null, (Value) null, resource.getURI());
+		rc.add(resource.getGraph(), resource.getURI());
+		rc.remove(resource.getURI(), Properties.dctModified, null);
+		rc.add(resource.getURI(), Properties.dctModified, Properties.getValueFactory().createLiteral(resource.getModified()));
+		// a resource that has been fetched is as recent as its modification date
+		rc.remove(resource.getURI(), Properties.ldcLastValidated, null);
+		setStringValue(rc, resource.getURI(), Properties.ldcETag, resource.getETag());
+		setStringValue(rc, resource.getURI(), Properties.ldcLastModified, resource.getLastModified());
+		setStringValue(rc, resource.getURI(), Properties.ldcCacheControl, resource.getCacheControl());
+	}
+
+	/**
+	 * Removes a resource's graph and metadata within the connection's current transaction.
+	 */
+	static void remove(RepositoryConnection rc, URI resourceURI) throws RepositoryException {
+		rc.remove((org.openrdf.model.Resource) null, (URI) null, (Value) null, resourceURI);
+		rc.remove(resourceURI, Properties.dctModified, null);
+		rc.remove(resourceURI, Properties.ldcLastValidated, null);
+		rc.remove(resourceURI, Properties.ldcETag, null);
+		rc.remove(resourceURI, Properties.ldcLastModified, null);
+		rc.remove(resourceURI, Properties.ldcCacheControl, null);
+	}
+
+	private static String getStringValue(RepositoryConnection rc, URI subject, URI predicate) throws RepositoryException {
+		RepositoryResult<Statement> rr = rc.getStatements(subject, predicate, null, false);
+		try {
+			if (rr.hasNext()) {
+				return rr.next().getObject().stringValue();
+			}
+		} finally {
+			rr.close();
+		}
+		return null;
+	}
+
+	private static void setStringValue(RepositoryConnection rc, URI subject, URI predicate, String value) throws RepositoryException {
+		rc.remove(subject, predicate, null);
+		if (value != null) {
+			rc.add(subject, predicate, Properties.getValueFactory().createLiteral(value));
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.util.NS;
+import org.entrystore.ldcache.util.Properties;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Refreshes cached resources in the background once they have expired.
+ *
+ * A resource expires when the time it was last fetched (dct:modified) or revalidated
+ * (ldc:lastValidated), whichever is later, is older than its TTL. The TTL is taken from
+ * the first of the following that is available: the TTL of the databundle the resource
+ * was cached for, the TTL configured for its host, the max-age of the Cache-Control
+ * header that was sent with the resource, and finally the default TTL. TTLs are never shorter than the minimum TTL.
+ *
+ * Only resources that have been registered by a crawl are refreshed, because the
+ * language whitelist that was applied when caching is needed to filter the fresh copy.
+ * The registrations are persisted in a named graph of their own and are loaded again at
+ * startup. A registration is dropped once its resource is not cached anymore.
+ *
+ * Resources that are blocked by the negative cache are not refreshed. The refreshes of a
+ * run are started at the configured rate and wait for a slot of their host like any other
+ * fetch, none of this occupies a thread.
+ *
+ * @author Hannes Ebner
+ */
+public class RefreshScheduler {
+
+	static Logger log = Logger.getLogger(RefreshScheduler.class);
+
+	static URI CONTEXT = Properties.getValueFactory().createURI(NS.ldc, "refresh");
+
+	private static Pattern MAX_AGE = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)");
+
+	CacheImpl cache;
+
+	Executor executor;
+
+	ScheduledExecutorService scheduler;
+
+	Map<URI, Policy> policies = new ConcurrentHashMap<>();
+
+	Map<String, Long> hostTTLs = new HashMap<>();
+
+	long interval = 300;
+
+	double rate = 1.0;
+
+	int batchSize = 1000;
+
+	long defaultTTL = 86400;
+
+	long minTTL = 3600;
+
+	volatile boolean stopped;
+
+	/**
+	 * How a registered resource is refreshed.
+	 */
+	static class Policy {
+
+		/**
+		 * TTL in seconds, or -1 if the TTL should be determined by host or Cache-Control.
+		 */
+		long ttl;
+
+		Set<String> includeLiteralLanguages;
+
+		Policy(long ttl, Set<String> includeLiteralLanguages) {
+			this.ttl = ttl;
+			this.includeLiteralLanguages = includeLiteralLanguages;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Policy)) {
+				return false;
+			}
+			Policy p = (Policy) o;
+			return ttl == p.ttl && Objects.equals(includeLiteralLanguages, p.includeLiteralLanguages);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(ttl, includeLiteralLanguages);
+		}
+
+	}
+
+	public RefreshScheduler(CacheImpl cache, Executor executor, JSONObject refreshConfig) throws JSONException {
+		if (cache == null || executor == null || refreshConfig == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.cache = cache;
+		this.executor = executor;
+
+		if (refreshConfig.has("interval")) {
+			interval = refreshConfig.getLong("interval");
+		}
+		if (refreshConfig.has("rate")) {
+			rate = refreshConfig.getDouble("rate");
+		}
+		if (refreshConfig.has("batchSize")) {
+			batchSize = refreshConfig.getInt("batchSize");
+		}
+		if (refreshConfig.has("defaultTTL")) {
+			defaultTTL = refreshConfig.getLong("defaultTTL");
+		}
+		if (refreshConfig.has("minTTL")) {
+			minTTL = refreshConfig.getLong("minTTL");
+		}
+		if (refreshConfig.has("hostTTL")) {
+			JSONObject hosts = refreshConfig.getJSONObject("hostTTL");
+			Iterator it = hosts.keys();
+			while (it.hasNext()) {
+				String host = (String) it.next();
+				hostTTLs.put(host, hosts.getLong(host));
+			}
+		}
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Refresh rate must be greater than 0");
+		}
+		load();
+	}
+
+	public void start() {
+		log.info("Starting refresh scheduler, checking for expired resources every " + interval + " seconds");
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ldcache-refresh-%d").setDaemon(true).build());
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refreshExpired();
+				} catch (RuntimeException e) {
+					log.error("Refresh run failed: " + e.getMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	public void stop() {
+		stopped = true;
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Registers resources for refreshing.
+	 *
+	 * @param resources The resources to register.
+	 * @param ttl The TTL in seconds, or -1 to use the TTL of the host or the resource's Cache-Control header.
+	 * @param includeLiteralLanguages The language whitelist that is applied to refreshed resources.
+	 */
+	public void register(Set<URI> resources, long ttl, Set<String> includeLiteralLanguages) {
+		Policy policy = new Policy(ttl, includeLiteralLanguages);
+		Set<URI> changed = new HashSet<>();
+		for (URI r : resources) {
+			if (!policy.equals(policies.put(r, policy))) {
+				changed.add(r);
+			}
+		}
+		if (!changed.isEmpty()) {
+			persist(changed);
+		}
+	}
+
+	/**
+	 * Refreshes at most batchSize of the expired resources, the longest expired first,
+	 * and returns when all of them have been processed.
+	 */
+	void refreshExpired() {
+		long now = System.currentTimeMillis();
+		final List<Map.Entry<URI, Long>> expired = new ArrayList<>();
+		Map<URI, Date> modified = new HashMap<>();
+		Map<URI, String> cacheControl = new HashMap<>();
+		loadMetadata(modified, cacheControl);
+
+		Set<URI> removed = new HashSet<>();
+		for (Map.Entry<URI, Policy> entry : policies.entrySet()) {
+			URI r = entry.getKey();
+			Date lastValidated = modified.get(r);
+			if (lastValidated == null) {
+				// removed from the cache, or never cached because it could not be loaded
+				if (!cache.writer.isPending(r) && policies.remove(r, entry.getValue())) {
+					removed.add(r);
+				}
+				continue;
+			}
+			if (cache.negativeCache != null && cache.negativeCache.isBlocked(r)) {
+				continue;
+			}
+			try {
+				long expires = lastValidated.getTime() + getTTL(r, entry.getValue(), cacheControl.get(r)) * 1000;
+				if (expires <= now) {
+					expired.add(new AbstractMap.SimpleEntry<>(r, expires));
+				}
+			} catch (RuntimeException e) {
+				// a single broken resource must not prevent the others from being refreshed
+				log.warn("Unable to determine expiry of <" + r + ">: " + e.getMessage());
+			}
+		}
+		if (!removed.isEmpty()) {
+			log.info("Dropping " + removed.size() + " refresh registration" + (removed.size() == 1 ? "" : "s") + " of resources that are not cached");
+			persist(removed);
+		}
+		if (expired.isEmpty()) {
+			return;
+		}
+
+		Collections.sort(expired, (e1, e2) -> Long.compare(e1.getValue(), e2.getValue()));
+		List<Map.Entry<URI, Long>> batch = expired.subList(0, Math.min(batchSize, expired.size()));
+		log.info("Refreshing " + batch.size() + " of " + expired.size() + " expired resource" + (expired.size() == 1 ? "" : "s"));
+
+		List<CompletableFuture<Boolean>> futures = new ArrayList<>(batch.size());
+		for (Map.Entry<URI, Long> e : batch) {
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			final URI r = e.getKey();
+			final Policy policy = policies.get(r);
+			if (policy == null) {
+				continue;
+			}
+			Executor start = CompletableFuture.delayedExecutor(Math.round(futures.size() * 1000 / rate), TimeUnit.MILLISECONDS, executor);
+			futures.add(CompletableFuture.supplyAsync(() -> !stopped, start).thenCompose(run -> run ? cache.refreshResource(r, policy.includeLiteralLanguages, executor) : CompletableFuture.completedFuture(false)).exceptionally(t -> {
+				log.warn("Unable to refresh <" + r + ">: " + t.getMessage());
+				return false;
+			}));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+	}
+
+	long getTTL(URI r, Policy policy, String cacheControl) {
+		long ttl = policy.ttl;
+		if (ttl < 0) {
+			Long hostTTL = hostTTLs.get(CacheImpl.getHost(r));
+			if (hostTTL != null) {
+				ttl = hostTTL;
+			}
+		}
+		if (ttl < 0 && cacheControl != null) {
+			Matcher m = MAX_AGE.matcher(cacheControl.toLowerCase());
+			if (m.find()) {
+				try {
+					ttl = Long.parseLong(m.group(1));
+				} catch (NumberFormatException nfe) {
+					log.debug("Invalid max-age in Cache-Control for <" + r + ">: " + cacheControl);
+				}
+			}
+		}
+		if (ttl < 0) {
+			ttl = defaultTTL;
+		}
+		return Math.max(ttl, minTTL);
+	}
+
+	private void load() {
+		Map<URI, Long> ttls = new HashMap<>();
+		Map<URI, Set<String>> languages = new HashMap<>();
+		RepositoryConnection rc = null;
+		try {
+			rc = cache.getRepository().getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(null, null, null, false, CONTEXT);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (!(s.getSubject() instanceof URI) || !(s.getObject() instanceof Literal)) {
+					continue;
+				}
+				URI r = (URI) s.getSubject();
+				Literal l = (Literal) s.getObject();
+				if (Properties.ldcTTL.equals(s.getPredicate())) {
+					ttls.put(r, l.longValue());
+				} else if (Properties.ldcLanguage.equals(s.getPredicate())) {
+					Set<String> set = languages.get(r);
+					if (set == null) {
+						set = new HashSet<>();
+						languages.put(r, set);
+					}
+					set.add(l.stringValue());
+				}
+			}
+			rr.close();
+		} catch (RepositoryException | NumberFormatException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		// resources that were registered together share their policy
+		Map<Policy, Policy> shared = new HashMap<>();
+		for (Map.Entry<URI, Long> e : ttls.entrySet()) {
+			Set<String> set = languages.get(e.getKey());
+			Policy policy = new Policy(e.getValue(), set != null ? set : Collections.<String>emptySet());
+			Policy existing = shared.putIfAbsent(policy, policy);
+			policies.put(e.getKey(), existing != null ? existing : policy);
+		}
+		if (!policies.isEmpty()) {
+			log.info("Loaded refresh registrations of " + policies.size() + " resource" + (policies.size() == 1 ? "" : "s"));
+		}
+	}
+
+	/**
+	 * Queues the stored registrations of the resources to be replaced with the policies in
+	 * memory at the time of the commit.
+	 */
+	private void persist(final Set<URI> resources) {
+		cache.writer.update(CONTEXT, new RepositoryWriter.Update() {
+			@Override
+			public void apply(RepositoryConnection rc) throws RepositoryException {
+				ValueFactory vf = rc.getValueFactory();
+				for (URI r : resources) {
+					rc.remove(r, null, null, CONTEXT);
+					Policy policy = policies.get(r);
+					if (policy != null) {
+						rc.add(r, Properties.ldcTTL, vf.createLiteral(policy.ttl), CONTEXT);
+						for (String language : policy.includeLiteralLanguages) {
+							if (language != null) {
+								rc.add(r, Properties.ldcLanguage, vf.createLiteral(language), CONTEXT);
+							}
+						}
+					}
+				}
+			}
+		}).whenComplete((v, t) -> {
+			if (t != null) {
+				log.error("Unable to persist refresh registrations: " + t.getMessage());
+			}
+		});
+	}
+
+	private void loadMetadata(Map<URI, Date> modified, Map<URI, String> cacheControl) {
+		RepositoryConnection rc = null;
+		try {
+			rc = cache.getRepository().getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(null, Properties.dctModified, null, false, (Resource) null);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI && s.getObject() instanceof Literal) {
+					modified.put((URI) s.getSubject(), ((Literal) s.getObject()).calendarValue().toGregorianCalendar().getTime());
+				}
+			}
+			rr.close();
+			rr = rc.getStatements(null, Properties.ldcLastValidated, null, false, (Resource) null);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI && s.getObject() instanceof Literal) {
+					Date validated = ((Literal) s.getObject()).calendarValue().toGregorianCalendar().getTime();
+					Date m = modified.get(s.getSubject());
+					if (m != null && validated.after(m)) {
+						modified.put((URI) s.getSubject(), validated);
+					}
+				}
+			}
+			rr.close();
+			rr = rc.getStatements(null, Properties.ldcCacheControl, null, false, (Resource) null);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI) {
+					cacheControl.put((URI) s.getSubject(), s.getObject().stringValue());
+				}
+			}
+			rr.close();
+		} catch (RepositoryException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+	}
+
+}
\ No newline at end of file
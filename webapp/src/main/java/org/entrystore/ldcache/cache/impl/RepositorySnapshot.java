@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.Rio;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailChangedEvent;
+import org.openrdf.sail.SailChangedListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes snapshots of a repository to a file in binary RDF and loads them on startup,
+ * so that a memory repository does not start empty after a restart.
+ *
+ * A snapshot contains all statements including their contexts, i.e. cached graphs,
+ * their metadata and the members and link indexes of databundles. Snapshots are taken
+ * in the background and only if the repository has changed since the last snapshot.
+ * A snapshot is written to a temporary file which then replaces the previous snapshot,
+ * so that a crash while writing never leaves a truncated snapshot behind.
+ *
+ * @author Hannes Ebner
+ */
+public class RepositorySnapshot {
+
+	static Logger log = Logger.getLogger(RepositorySnapshot.class);
+
+	static int BUFFER_SIZE = 256 * 1024;
+
+	Repository repository;
+
+	File file;
+
+	long interval = 3600;
+
+	ScheduledExecutorService scheduler;
+
+	AtomicBoolean changed = new AtomicBoolean();
+
+	/**
+	 * @param sail The sail of the repository, used to detect changes.
+	 */
+	public RepositorySnapshot(Repository repository, NotifyingSail sail, JSONObject snapshotConfig) throws JSONException {
+		if (repository == null || sail == null || snapshotConfig == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.repository = repository;
+		this.file = new File(java.net.URI.create(snapshotConfig.getString("uri")));
+		if (snapshotConfig.has("interval")) {
+			interval = snapshotConfig.getLong("interval");
+		}
+		sail.addSailChangedListener(new SailChangedListener() {
+			@Override
+			public void sailChanged(SailChangedEvent event) {
+				if (event.statementsAdded() || event.statementsRemoved()) {
+					changed.set(true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the statements of the snapshot to the repository in one transaction.
+	 *
+	 * @return The number of statements in the repository after loading, or -1 if there
+	 * is no snapshot or if it could not be loaded.
+	 */
+	public long load() {
+		if (!file.exists()) {
+			log.info("No snapshot found at " + file);
+			return -1;
+		}
+		long begin = System.currentTimeMillis();
+		RepositoryConnection rc = null;
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+			rc = repository.getConnection();
+			rc.begin();
+			// without contexts the statements are added to the contexts they were exported from
+			rc.add(in, "", RDFFormat.BINARY);
+			rc.commit();
+			long size = rc.size();
+			log.info("Loaded " + size + " statements from snapshot " + file + " in " + (System.currentTimeMillis() - begin) + " ms");
+			// loading is not a change that needs to be written back
+			changed.set(false);
+			return size;
+		} catch (IOException | RDFParseException | RepositoryException e) {
+			log.error("Unable to load snapshot " + file + ": " + e.getMessage());
+			if (rc != null) {
+				try {
+					rc.rollback();
+				} catch (RepositoryException re) {
+					log.error(re.getMessage());
+				}
+			}
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.error(e.getMessage());
+				}
+			}
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		return -1;
+	}
+
+	public void start() {
+		log.info("Writing a snapshot of the repository to " + file + " every " + interval + " seconds if it has changed");
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ldcache-snapshot-%d").setDaemon(true).build());
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (changed.getAndSet(false) && !write()) {
+						changed.set(true);
+					}
+				} catch (RuntimeException e) {
+					changed.set(true);
+					log.error("Snapshot failed: " + e.getMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Exports the repository to a temporary file and moves it in place of the previous
+	 * snapshot.
+	 *
+	 * @return True if the snapshot has been written.
+	 */
+	public synchronized boolean write() {
+		long begin = System.currentTimeMillis();
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			log.error("Unable to create directory " + parent);
+			return false;
+		}
+		File tmp = new File(parent, file.getName() + ".tmp");
+		RepositoryConnection rc = null;
+		OutputStream out = null;
+		boolean written = false;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+			rc = repository.getConnection();
+			rc.export(Rio.createWriter(RDFFormat.BINARY, out));
+			out.close();
+			out = null;
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			written = true;
+			log.info("Wrote snapshot " + file + " (" + file.length() + " bytes) in " + (System.currentTimeMillis() - begin) + " ms");
+		} catch (IOException | RDFHandlerException | RepositoryException e) {
+			log.error("Unable to write snapshot " + file + ": " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					log.error(e.getMessage());
+				}
+			}
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+			if (!written && tmp.exists() && !tmp.delete()) {
+				log.warn("Unable to delete " + tmp);
+			}
+		}
+		return written;
+	}
+
+}
\ No newline at end of file
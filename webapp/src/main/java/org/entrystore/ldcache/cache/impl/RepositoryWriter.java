@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.cache.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Write-behind queue for cached resources.
+ *
+ * Writes are queued and a single writer thread commits them in batches: a batch is
+ * committed as soon as it contains maxBatchSize writes or when the oldest write in
+ * it has waited for maxLatency milliseconds. This turns many small transactions into
+ * a few large ones, which is considerably cheaper on stores that sync to disk on
+ * every commit.
+ *
+ * Queued writes are visible through getPending() until they have been committed,
+ * so that readers do not fetch a resource again that is about to be written.
+ *
+ * Other changes, e.g. to bookkeeping graphs, can be queued with update() to be
+ * committed in the same batches.
+ *
+ * @author Hannes Ebner
+ */
+public class RepositoryWriter {
+
+	static Logger log = Logger.getLogger(RepositoryWriter.class);
+
+	Repository repository;
+
+	BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+
+	Map<URI, Write> pending = new ConcurrentHashMap<>();
+
+	int maxBatchSize;
+
+	long maxLatency;
+
+	Thread writerThread;
+
+	volatile boolean running = true;
+
+	List<CommitListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Is notified after writes have been committed.
+	 */
+	public interface CommitListener {
+
+		/**
+		 * @param contexts The named graphs, i.e. resources, that have been saved or removed.
+		 */
+		void committed(Set<URI> contexts);
+
+	}
+
+	/**
+	 * A change to a named graph that is not the save or removal of a cached resource.
+	 */
+	public interface Update {
+
+		void apply(RepositoryConnection rc) throws RepositoryException;
+
+	}
+
+	/**
+	 * A queued write. A write without resource and update removes the resource.
+	 */
+	static class Write {
+
+		URI uri;
+
+		Resource resource;
+
+		Update update;
+
+		CompletableFuture<Void> committed = new CompletableFuture<>();
+
+		Write(URI uri, Resource resource) {
+			this.uri = uri;
+			this.resource = resource;
+		}
+
+		Write(URI context, Update update) {
+			this.uri = context;
+			this.update = update;
+		}
+
+		void apply(RepositoryConnection rc) throws RepositoryException {
+			if (update != null) {
+				update.apply(rc);
+			} else if (resource != null) {
+				RdfResource.save(rc, resource);
+			} else {
+				RdfResource.remove(rc, uri);
+			}
+		}
+
+	}
+
+	public RepositoryWriter(Repository repository, int maxBatchSize, long maxLatency) {
+		if (repository == null) {
+			throw new IllegalArgumentException("Repository must not be null");
+		}
+		this.repository = repository;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxLatency = Math.max(0, maxLatency);
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "ldcache-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		log.info("Started repository writer with batch size " + this.maxBatchSize + " and latency " + this.maxLatency + " ms");
+	}
+
+	/**
+	 * Queues a resource to be saved.
+	 *
+	 * @return A future that completes when the resource has been committed.
+	 */
+	public CompletableFuture<Void> save(Resource resource) {
+		if (resource == null || resource.getURI() == null || resource.getGraph() == null || resource.getModified() == null) {
+			throw new IllegalArgumentException("The resource and its properties must not be null");
+		}
+		return enqueue(new Write(resource.getURI(), resource));
+	}
+
+	/**
+	 * Queues a resource to be removed.
+	 *
+	 * @return A future that completes when the removal has been committed.
+	 */
+	public CompletableFuture<Void> remove(URI resourceURI) {
+		if (resourceURI == null) {
+			throw new IllegalArgumentException("Resource URI must not be null");
+		}
+		return enqueue(new Write(resourceURI, (Resource) null));
+	}
+
+	/**
+	 * Queues a change to a named graph. The change is neither visible through getPending()
+	 * nor reported to the commit listeners, which are only concerned with cached resources.
+	 *
+	 * @param context The named graph that is changed, it is write-locked while the change is committed.
+	 * @return A future that completes when the change has been committed.
+	 */
+	public CompletableFuture<Void> update(URI context, Update update) {
+		if (context == null || update == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		return enqueue(new Write(context, update));
+	}
+
+	public void addCommitListener(CommitListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @return True if a write for the resource is queued but not yet committed.
+	 */
+	public boolean isPending(URI resourceURI) {
+		return pending.containsKey(resourceURI);
+	}
+
+	/**
+	 * @return The most recently queued, not yet committed version of a resource, or
+	 * null if no write is pending or if the pending write is a removal.
+	 */
+	public Resource getPending(URI resourceURI) {
+		Write w = pending.get(resourceURI);
+		return w != null ? w.resource : null;
+	}
+
+	/**
+	 * Stops the writer after all queued writes have been committed.
+	 */
+	public void shutdown() {
+		running = false;
+		writerThread.interrupt();
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private CompletableFuture<Void> enqueue(Write w) {
+		if (!running) {
+			throw new IllegalStateException("Repository writer has been shut down");
+		}
+		if (w.update == null) {
+			pending.put(w.uri, w);
+		}
+		queue.add(w);
+		return w.committed;
+	}
+
+	private void writeLoop() {
+		List<Write> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Write first = running ? queue.take() : queue.poll();
+				if (first == null) {
+					break;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatency);
+				while (batch.size() < maxBatchSize) {
+					long remaining = deadline - System.nanoTime();
+					Write next = remaining > 0 && running ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// shutdown() interrupts, the loop drains the queue before exiting
+			}
+			if (!batch.isEmpty()) {
+				try {
+					commit(batch);
+				} catch (RuntimeException e) {
+					// the writer thread must survive anything, otherwise pending writes are never released
+					log.error("Unable to commit batch: " + e.getMessage());
+					for (Write w : batch) {
+						completed(w, e);
+					}
+				}
+				batch.clear();
+			}
+		}
+		log.info("Repository writer stopped");
+	}
+
+	/**
+	 * Commits a batch in a single transaction. If that fails, the writes are retried in
+	 * separate transactions so that a single failing write does not affect the others.
+	 */
+	private void commit(List<Write> batch) {
+		Set<URI> contexts = new HashSet<>();
+		for (Write w : batch) {
+			if (w.update == null) {
+				contexts.add(w.uri);
+			}
+		}
+		Map<Write, Throwable> failed = new HashMap<>();
+		try {
+			writeTransaction(batch);
+			log.debug("Committed batch of " + batch.size() + " write" + (batch.size() == 1 ? "" : "s"));
+		} catch (RepositoryException | RuntimeException e) {
+			log.warn("Unable to commit batch, committing writes separately: " + e.getMessage());
+			for (Write w : batch) {
+				List<Write> single = new ArrayList<>(1);
+				single.add(w);
+				try {
+					writeTransaction(single);
+				} catch (RepositoryException | RuntimeException re) {
+					log.error("Unable to write <" + w.uri + ">: " + re.getMessage());
+					failed.put(w, re);
+				}
+			}
+		}
+		// the caches have to be invalidated before the pending writes are dropped,
+		// otherwise a reader could repopulate a cache from the repository in between
+		// and keep serving the state from before the commit
+		if (!contexts.isEmpty()) {
+			for (CommitListener l : listeners) {
+				try {
+					l.committed(contexts);
+				} catch (RuntimeException e) {
+					log.error("Commit listener failed: " + e.getMessage());
+				}
+			}
+		}
+		for (Write w : batch) {
+			completed(w, failed.get(w));
+		}
+	}
+
+	private void writeTransaction(List<Write> writes) throws RepositoryException {
+		Set<URI> contexts = new HashSet<>();
+		for (Write w : writes) {
+			contexts.add(w.uri);
+		}
+		List<Lock> locks = ContextLocks.writeLocks(contexts);
+		for (Lock l : locks) {
+			l.lock();
+		}
+		RepositoryConnection rc = null;
+		try {
+			rc = repository.getConnection();
+			rc.begin();
+			for (Write w : writes) {
+				w.apply(rc);
+			}
+			rc.commit();
+		} catch (RepositoryException | RuntimeException e) {
+			if (rc != null) {
+				try {
+					rc.rollback();
+				} catch (RepositoryException re) {
+					log.error(re.getMessage());
+				}
+			}
+			throw e;
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+			for (int i = locks.size() - 1; i >= 0; i--) {
+				locks.get(i).unlock();
+			}
+		}
+	}
+
+	private void completed(Write w, Throwable t) {
+		// only forget the write if it has not been superseded by a newer one
+		pending.remove(w.uri, w);
+		if (t == null) {
+			w.committed.complete(null);
+		} else {
+			w.committed.completeExceptionally(t);
+		}
+	}
+
+}
\ No newline at end of file
@@ -18,19 +18,31 @@ package org.entrystore.ldcache.cache.impl;
 
 import org.apache.log4j.Logger;
 import org.entrystore.ldcache.cache.Databundle;
+import org.entrystore.ldcache.util.NS;
 import org.entrystore.ldcache.util.Properties;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 
 /**
  * @author Hannes Ebner
@@ -45,9 +57,16 @@ public class SailDatabundle implements Databundle {
 
 	Date lastModified;
 
-	public SailDatabundle(Repository repository, URI databundleURI) {
+	RepositoryWriter writer;
+
+	/**
+	 * @param writer Resources are written through the writer so that the caches
+	 *               listening to its commits are invalidated.
+	 */
+	public SailDatabundle(Repository repository, URI databundleURI, RepositoryWriter writer) {
 		this.repository = repository;
 		this.databundleURI = databundleURI;
+		this.writer = writer;
 	}
 
 	@Override
@@ -90,7 +109,7 @@ public class SailDatabundle implements Databundle {
 			throw new IllegalArgumentException();
 		}
 		RepositoryConnection rc = null;
-		Set<URI> result = null;
+		Set<URI> result = new HashSet<>();
 		try {
 			rc = repository.getConnection();
 			RepositoryResult<Statement> rr = rc.getStatements(databundleURI, Properties.ldcResource, null, false, databundleURI);
@@ -100,6 +119,7 @@ public class SailDatabundle implements Databundle {
 					result.add((URI) s.getObject());
 				}
 			}
+			rr.close();
 		} catch (RepositoryException e) {
 			log.error(e.getMessage());
 		} finally {
@@ -114,6 +134,151 @@ public class SailDatabundle implements Databundle {
 		return result;
 	}
 
+	/**
+	 * @return The fingerprint of the follow rules of the last population, or null if
+	 * the databundle has not been populated yet.
+	 */
+	public String getFingerprint() {
+		RepositoryConnection rc = null;
+		try {
+			rc = repository.getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(databundleURI, Properties.ldcFingerprint, null, false, databundleURI);
+			try {
+				if (rr.hasNext()) {
+					return rr.next().getObject().stringValue();
+				}
+			} finally {
+				rr.close();
+			}
+		} catch (RepositoryException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The outgoing links of all resources of the last population, without
+	 * checking whether they are still valid.
+	 */
+	public LinkIndex loadLinkIndex() {
+		LinkIndex result = new LinkIndex();
+		Map<URI, Set<URI>> links = new HashMap<>();
+		RepositoryConnection rc = null;
+		try {
+			rc = repository.getConnection();
+			RepositoryResult<Statement> rr = rc.getStatements(null, Properties.ldcLink, null, false, databundleURI);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI && s.getObject() instanceof URI) {
+					Set<URI> objects = links.get(s.getSubject());
+					if (objects == null) {
+						objects = new HashSet<>();
+						links.put((URI) s.getSubject(), objects);
+					}
+					objects.add((URI) s.getObject());
+				}
+			}
+			rr.close();
+			rr = rc.getStatements(null, Properties.ldcLinksIndexed, null, false, databundleURI);
+			while (rr.hasNext()) {
+				Statement s = rr.next();
+				if (s.getSubject() instanceof URI && s.getObject() instanceof Literal) {
+					URI r = (URI) s.getSubject();
+					Set<URI> objects = links.get(r);
+					Date indexed = ((Literal) s.getObject()).calendarValue().toGregorianCalendar().getTime();
+					result.put(r, objects != null ? objects : Collections.<URI>emptySet(), indexed);
+				}
+			}
+			rr.close();
+		} catch (RepositoryException e) {
+			log.error(e.getMessage());
+		} finally {
+			if (rc != null) {
+				try {
+					rc.close();
+				} catch (RepositoryException e) {
+					log.error(e.getMessage());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the members and the link index of the databundle in one transaction.
+	 *
+	 * @param fingerprint The fingerprint of the follow rules, see LinkIndex.fingerprint().
+	 * @param resources The resources that have been visited during population.
+	 * @param linkIndex The links of the visited resources. May be null.
+	 */
+	public void update(String fingerprint, Set<URI> resources, LinkIndex linkIndex) {
+		if (fingerprint == null || resources == null) {
+			throw new IllegalArgumentException();
+		}
+		ValueFactory vf = Properties.getValueFactory();
+		Date now = new Date();
+		Lock lock = ContextLocks.writeLock(databundleURI);
+		lock.lock();
+		try {
+			RepositoryConnection rc = null;
+			try {
+				rc = repository.getConnection();
+				rc.begin();
+				rc.remove((Resource) null, (URI) null, (Value) null, databundleURI);
+				rc.add(databundleURI, Properties.ldcFingerprint, vf.createLiteral(fingerprint), databundleURI);
+				rc.add(databundleURI, Properties.dctModified, vf.createLiteral(now), databundleURI);
+				for (URI r : resources) {
+					rc.add(databundleURI, Properties.ldcResource, r, databundleURI);
+					Date indexed = linkIndex != null ? linkIndex.getIndexed(r) : null;
+					if (indexed != null) {
+						rc.add(r, Properties.ldcLinksIndexed, vf.createLiteral(indexed), databundleURI);
+						for (URI link : linkIndex.get(r)) {
+							rc.add(r, Properties.ldcLink, link, databundleURI);
+						}
+					}
+				}
+				rc.commit();
+				this.lastModified = now;
+			} catch (RepositoryException e) {
+				try {
+					rc.rollback();
+				} catch (RepositoryException re) {
+					log.error(re.getMessage());
+				}
+				log.error(e.getMessage());
+			} finally {
+				if (rc != null) {
+					try {
+						rc.close();
+					} catch (RepositoryException e) {
+						log.error(e.getMessage());
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The URI of the context in which a databundle's members and links are stored.
+	 */
+	public static URI createURI(String name) {
+		try {
+			return Properties.getValueFactory().createURI(NS.ldc + "databundle/" + URLEncoder.encode(name, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@Override
 	public org.entrystore.ldcache.cache.Resource getResource(URI resourceURI) {
 		if (resourceURI == null) {
@@ -127,7 +292,7 @@ public class SailDatabundle implements Databundle {
 		if (resource == null) {
 			throw new IllegalArgumentException();
 		}
-		RdfResource.saveToRepository(repository, resource);
+		writer.save(resource).join();
 		updateModified(new Date());
 	}
 
@@ -136,16 +301,20 @@ public class SailDatabundle implements Databundle {
 		if (resourceURI == null) {
 			throw new IllegalArgumentException();
 		}
-		RdfResource.removeFromRepository(repository, resourceURI);
+		writer.remove(resourceURI).join();
 		updateModified(new Date());
 	}
 
 	@Override
 	public void delete() {
+		List<CompletableFuture<Void>> removals = new ArrayList<>();
 		for (URI r : getResources()) {
-			RdfResource.removeFromRepository(repository, r);
+			removals.add(writer.remove(r));
 		}
-		synchronized (repository) {
+		CompletableFuture.allOf(removals.toArray(new CompletableFuture[0])).join();
+		Lock lock = ContextLocks.writeLock(databundleURI);
+		lock.lock();
+		try {
 			RepositoryConnection rc = null;
 			try {
 				rc = repository.getConnection();
@@ -168,6 +337,8 @@ public class SailDatabundle implements Databundle {
 					}
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -175,7 +346,9 @@ public class SailDatabundle implements Databundle {
 		if (lastModified == null) {
 			throw new IllegalArgumentException();
 		}
-		synchronized (repository) {
+		Lock lock = ContextLocks.writeLock(databundleURI);
+		lock.lock();
+		try {
 			RepositoryConnection rc = null;
 			try {
 				rc = repository.getConnection();
@@ -200,6 +373,8 @@ public class SailDatabundle implements Databundle {
 					}
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
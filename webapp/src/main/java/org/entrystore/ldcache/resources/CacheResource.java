@@ -18,26 +18,33 @@ package org.entrystore.ldcache.resources;
 
 import org.apache.log4j.Logger;
 import org.entrystore.ldcache.cache.Cache;
+import org.entrystore.ldcache.cache.Job;
+import org.entrystore.ldcache.cache.ResultCache;
 import org.entrystore.ldcache.util.JsonUtil;
 import org.entrystore.ldcache.util.RdfMedia;
+import org.entrystore.ldcache.util.RdfRepresentation;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openrdf.model.Model;
 import org.openrdf.model.URI;
 import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.Rio;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.ByteArrayRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.Post;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author Hannes Ebner
@@ -58,41 +65,97 @@ public class CacheResource extends BaseResource {
 
 		log.info("Received request for: " + url);
 
-		Model resultGraph = cache.getMergedGraphs(new HashSet<URI>(Arrays.asList(url)), follow, followTuples, includeDestinations, includeLiteralLanguages, followDepth);
-		if (resultGraph.size() > 0) {
-			String outputMediaType = null;
-			if (parameters.containsKey("format")) {
-				outputMediaType = parameters.get("format");
+		String outputMediaType = null;
+		if (parameters.containsKey("format")) {
+			outputMediaType = parameters.get("format");
+		}
+		if (outputMediaType == null) {
+			outputMediaType = getRequest().getClientInfo().getPreferredMediaType(RdfMedia.SUPPORTED_MEDIA_TYPES).getName();
+		}
+		if (outputMediaType == null) {
+			outputMediaType = "application/rdf+xml";
+		}
+		final RDFFormat rdfFormat = RDFFormat.forMIMEType(outputMediaType);
+		if (rdfFormat == null) {
+			log.debug("Received request with MIME type that cannot be understood by Sesame Rio: " + outputMediaType);
+			getResponse().setStatus(Status.CLIENT_ERROR_UNSUPPORTED_MEDIA_TYPE);
+			return null;
+		}
+
+		ResultCache resultCache = cache.getResultCache();
+		ResultCache.Lease lease = null;
+		if (resultCache != null) {
+			lease = resultCache.acquire(ResultCache.createKey(url, follow, followTuples, includeDestinations, includeLiteralLanguages, followDepth, outputMediaType));
+			ResultCache.Result cached = lease.getResult();
+			if (cached != null) {
+				if (cached.getData() != null) {
+					log.debug("Returning cached result in format " + outputMediaType);
+					return new ByteArrayRepresentation(cached.getData(), MediaType.valueOf(outputMediaType));
+				}
+				getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+				return null;
 			}
-			if (outputMediaType == null) {
-				outputMediaType = getRequest().getClientInfo().getPreferredMediaType(RdfMedia.SUPPORTED_MEDIA_TYPES).getName();
+		}
+
+		// the merged graph is empty if and only if the requested resource itself is not cached
+		final Set<URI> roots = new HashSet<URI>(Arrays.asList(url));
+		final Set<URI> visited = new HashSet<>();
+		Model rootGraph;
+		try {
+			rootGraph = cache.getMergedGraphs(roots, null, null, includeDestinations, includeLiteralLanguages, 0, visited);
+		} catch (RuntimeException e) {
+			if (lease != null) {
+				lease.abandon();
 			}
-			if (outputMediaType == null) {
-				outputMediaType = "application/rdf+xml";
+			throw e;
+		}
+
+		if (rootGraph.size() == 0) {
+			if (lease != null) {
+				lease.completeEmpty(visited);
+			}
+			getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return null;
+		}
+
+		log.debug("Writing content in format " + outputMediaType);
+		final ResultCache.Lease resultLease = lease;
+		return new RdfRepresentation(MediaType.valueOf(outputMediaType), rdfFormat) {
+			@Override
+			protected void write(RDFHandler handler) throws RDFHandlerException {
+				// the merged graph is traversed while it is written, statements are not collected
+				visited.clear();
+				handler.startRDF();
+				cache.getMergedGraphs(roots, follow, followTuples, includeDestinations, includeLiteralLanguages, followDepth, handler, visited);
+				handler.endRDF();
 			}
-			RDFFormat rdfFormat = RDFFormat.forMIMEType(outputMediaType);
-			if (rdfFormat != null) {
-				log.debug("Writing content in format " + outputMediaType);
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+			@Override
+			public void write(OutputStream outputStream) throws IOException {
+				if (resultLease == null) {
+					super.write(outputStream);
+					return;
+				}
 				try {
-					Rio.write(resultGraph, baos, rdfFormat);
-				} catch (RDFHandlerException e) {
-					log.error("RDF handler " + e.getMessage());
+					super.write(resultLease.capture(outputStream));
+					resultLease.complete(visited);
+				} finally {
+					resultLease.abandon();
 				}
-				return new ByteArrayRepresentation(baos.toByteArray(), MediaType.valueOf(outputMediaType));
-			} else {
-				log.debug("Received request with MIME type that cannot be understood by Sesame Rio: " + outputMediaType);
-				getResponse().setStatus(Status.CLIENT_ERROR_UNSUPPORTED_MEDIA_TYPE);
-				return null;
 			}
-		}
 
-		getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
-		return null;
+			@Override
+			public void release() {
+				if (resultLease != null) {
+					resultLease.abandon();
+				}
+				super.release();
+			}
+		};
 	}
 
 	@Post("json")
-	public void postJSON(Representation r) {
+	public Representation postJSON(Representation r) throws JSONException {
 		JSONObject json = null;
 		try {
 			json = new JSONObject(r.getText());
@@ -103,7 +166,7 @@ public class CacheResource extends BaseResource {
 		}
 		if (json == null) {
 			getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
-			return;
+			return null;
 		}
 
 		org.json.JSONArray toAdd = null;
@@ -116,7 +179,7 @@ public class CacheResource extends BaseResource {
 		}
 		if (toAdd == null) {
 			getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
-			return;
+			return null;
 		}
 
 		org.json.JSONArray toFollow = null;
@@ -166,11 +229,28 @@ public class CacheResource extends BaseResource {
 			}
 		}
 
-		// FIXME start a thread to do the following
+		Set<String> destinations = new HashSet<>(Arrays.asList("*"));
+		if (includeDestinations != null) {
+			destinations = JsonUtil.jsonArrayToStringSet(includeDestinations);
+		}
+		Set<String> languages = new HashSet<>(Arrays.asList("*"));
+		if (includeLiteralLanguages != null) {
+			languages = JsonUtil.jsonArrayToStringSet(includeLiteralLanguages);
+		}
 
-		cache.loadAndCacheResources(JsonUtil.jsonArrayToURISet(toAdd), JsonUtil.jsonArrayToURISet(toFollow), JsonUtil.jsonObjectToMap(followTuples), JsonUtil.jsonArrayToStringSet(includeDestinations), JsonUtil.jsonArrayToStringSet(includeLiteralLanguages), depth);
+		Job job;
+		try {
+			job = getLDCache().getCache().submit(JsonUtil.jsonArrayToURISet(toAdd), toFollow != null ? JsonUtil.jsonArrayToURISet(toFollow) : null, followTuples != null ? JsonUtil.jsonObjectToMap(followTuples) : null, destinations, languages, depth);
+		} catch (RejectedExecutionException e) {
+			log.warn("Rejected job, too many jobs are queued");
+			getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+			return null;
+		}
+		log.info("Submitted job " + job.getId());
 
-		getResponse().setStatus(Status.SUCCESS_OK); // FIXME change to ACCEPTED if run in background thread
+		getResponse().setLocationRef(getRequest().getRootRef() + "/jobs/" + job.getId());
+		getResponse().setStatus(Status.SUCCESS_ACCEPTED);
+		return new JsonRepresentation(JobResource.toJSON(job));
 	}
 
 	private boolean hasAllParameters() {
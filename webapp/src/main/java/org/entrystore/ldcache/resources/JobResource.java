@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.resources;
+
+import org.apache.log4j.Logger;
+import org.entrystore.ldcache.cache.Job;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Delete;
+import org.restlet.resource.Get;
+
+import java.util.Date;
+
+/**
+ * Progress and cancellation of background jobs.
+ *
+ * /jobs lists the active jobs (all retained jobs with ?all), /jobs/{id} returns
+ * the progress of a single job and cancels it on DELETE.
+ *
+ * @author Hannes Ebner
+ */
+public class JobResource extends BaseResource {
+
+	static Logger log = Logger.getLogger(JobResource.class);
+
+	@Get("json")
+	public Representation getJSON() throws JSONException {
+		String id = getAttribute("id");
+		if (id == null) {
+			boolean all = parameters.containsKey("all");
+			JSONArray jobs = new JSONArray();
+			for (Job job : getLDCache().getCache().getJobs()) {
+				if (all || !job.isDone()) {
+					jobs.put(toJSON(job));
+				}
+			}
+			JSONObject result = new JSONObject();
+			result.put("jobs", jobs);
+			return new JsonRepresentation(result);
+		}
+
+		Job job = getLDCache().getCache().getJob(id);
+		if (job == null) {
+			getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return null;
+		}
+		return new JsonRepresentation(toJSON(job));
+	}
+
+	@Delete
+	public Representation cancel() throws JSONException {
+		String id = getAttribute("id");
+		Job job = id != null ? getLDCache().getCache().getJob(id) : null;
+		if (job == null) {
+			getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return null;
+		}
+		if (!job.cancel()) {
+			getResponse().setStatus(Status.CLIENT_ERROR_CONFLICT);
+		} else {
+			log.info("Cancelled job " + id);
+		}
+		return new JsonRepresentation(toJSON(job));
+	}
+
+	public static JSONObject toJSON(Job job) throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("id", job.getId());
+		result.put("status", job.getStatus().name().toLowerCase());
+		result.put("submitted", toTimestamp(job.getSubmitted()));
+		result.put("started", toTimestamp(job.getStarted()));
+		result.put("finished", toTimestamp(job.getFinished()));
+		result.put("visited", job.getVisited());
+		result.put("queued", job.getQueued());
+		result.put("fetched", job.getFetched());
+		result.put("cached", job.getCached());
+		result.put("failed", job.getFailed());
+		return result;
+	}
+
+	private static Object toTimestamp(Date date) {
+		return date != null ? date.getTime() : JSONObject.NULL;
+	}
+
+}
\ No newline at end of file
@@ -19,23 +19,23 @@ package org.entrystore.ldcache.resources;
 import org.apache.log4j.Logger;
 import org.entrystore.ldcache.util.HttpUtil;
 import org.entrystore.ldcache.util.RdfMedia;
-import org.openrdf.model.Graph;
+import org.entrystore.ldcache.util.RdfRepresentation;
+import org.entrystore.ldcache.util.RetryPolicy;
 import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Uniform;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
-import org.restlet.representation.ByteArrayRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * @author Hannes Ebner
@@ -69,7 +69,7 @@ public class ProxyResource extends BaseResource {
 
 		log.info("Received proxy request for " + url);
 
-		clientResponse = HttpUtil.getResourceFromURL(url.toString(), 0, 0, 0);
+		clientResponse = HttpUtil.getResourceFromURL(url.toString(), 0, RetryPolicy.NONE);
 		input = null;
 		MediaType representationMediaType = null;
 		if (clientResponse != null) {
@@ -88,46 +88,46 @@ public class ProxyResource extends BaseResource {
 		Representation output = null;
 
 		if (input != null && input.isAvailable() && representationMediaType != null) {
-			InputStream content = null;
-			try {
-				content = input.getStream();
-			} catch (IOException e) {
-				log.error(e.getMessage());
-			}
-			if (content != null) {
-				Graph deserializedGraph = null;
-				log.debug("Requesting parser format for " + representationMediaType);
-				RDFFormat rdfFormat = Rio.getParserFormatForMIMEType(representationMediaType.getName());
-				log.debug("Got parser format " + rdfFormat);
-				if (rdfFormat != null) {
-					try {
-						deserializedGraph = Rio.parse(content, "", rdfFormat);
-					} catch (IOException e) {
-						log.error("IO error " + e.getMessage());
-					} catch (RDFParseException e) {
-						log.error("Unable to parse RDF " + e.getMessage());
-					}
-
-					if (deserializedGraph != null) {
-						String outputMediaType = null;
-						if (parameters.containsKey("format")) {
-							outputMediaType = parameters.get("format");
-						}
-						if (outputMediaType == null) {
-							outputMediaType = getRequest().getClientInfo().getPreferredMediaType(RdfMedia.SUPPORTED_MEDIA_TYPES).getName();
-						}
-						if (outputMediaType == null) {
-							outputMediaType = "application/rdf+xml";
-						}
-						log.debug("Writing content in format " + outputMediaType);
-						ByteArrayOutputStream baos = new ByteArrayOutputStream();
-						try {
-							Rio.write(deserializedGraph, baos, RDFFormat.forMIMEType(outputMediaType));
-						} catch (RDFHandlerException e) {
-							log.error(e.getMessage());
+			log.debug("Requesting parser format for " + representationMediaType);
+			final RDFFormat rdfFormat = Rio.getParserFormatForMIMEType(representationMediaType.getName());
+			log.debug("Got parser format " + rdfFormat);
+			if (rdfFormat != null) {
+				String outputMediaType = null;
+				if (parameters.containsKey("format")) {
+					outputMediaType = parameters.get("format");
+				}
+				if (outputMediaType == null) {
+					outputMediaType = getRequest().getClientInfo().getPreferredMediaType(RdfMedia.SUPPORTED_MEDIA_TYPES).getName();
+				}
+				if (outputMediaType == null) {
+					outputMediaType = "application/rdf+xml";
+				}
+				RDFFormat outputFormat = RDFFormat.forMIMEType(outputMediaType);
+				if (rdfFormat.equals(outputFormat)) {
+					// same format, the upstream body is passed through without being parsed
+					log.debug("Passing through content in format " + representationMediaType);
+					output = input;
+				} else if (outputFormat != null) {
+					log.debug("Transcoding content from " + representationMediaType + " to " + outputMediaType);
+					output = new RdfRepresentation(MediaType.valueOf(outputMediaType), outputFormat) {
+						@Override
+						protected void write(RDFHandler handler) throws RDFHandlerException {
+							// the parser reports directly to the writer, no graph is built in between
+							RDFParser parser = Rio.createParser(rdfFormat);
+							parser.setRDFHandler(handler);
+							try {
+								parser.parse(input.getStream(), "");
+							} catch (IOException e) {
+								log.error("IO error " + e.getMessage());
+								throw new RDFHandlerException(e);
+							} catch (RDFParseException e) {
+								log.error("Unable to parse RDF " + e.getMessage());
+								throw new RDFHandlerException(e);
+							}
 						}
-						output = new ByteArrayRepresentation(baos.toByteArray(), MediaType.valueOf(outputMediaType));
-					}
+					};
+				} else {
+					log.debug("Received request with MIME type that cannot be understood by Sesame Rio: " + outputMediaType);
 				}
 			}
 		}
@@ -17,6 +17,7 @@
 package org.entrystore.ldcache.resources;
 
 import org.apache.log4j.Logger;
+import org.entrystore.ldcache.util.HttpUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openrdf.model.Resource;
@@ -31,6 +32,7 @@ import org.restlet.representation.StringRepresentation;
 import org.restlet.resource.Get;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +46,16 @@ public class StatusResource extends BaseResource {
 	public Representation getJSON() throws JSONException {
 		JSONObject result = new JSONObject();
 		result.put("service", "ld-cache");
+		JSONObject rateLimits = new JSONObject();
+		for (Map.Entry<String, Double> e : getLDCache().getCache().getRateLimits().entrySet()) {
+			rateLimits.put(e.getKey(), e.getValue());
+		}
+		result.put("rateLimits", rateLimits);
+		JSONObject activeRequests = new JSONObject();
+		for (Map.Entry<String, Integer> e : HttpUtil.getActiveRequests().entrySet()) {
+			activeRequests.put(e.getKey(), e.getValue());
+		}
+		result.put("activeRequests", activeRequests);
 		return new JsonRepresentation(result);
 	}
 
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits the number of concurrent requests per host.
+ *
+ * Every host has a compartment with a fixed number of permits. A request that does not
+ * get a permit right away waits in the compartment's queue without occupying a thread;
+ * if the queue is full, the request is rejected. A slow host can therefore only tie up
+ * its own permits, and requests to other hosts are not affected.
+ *
+ * @author Hannes Ebner
+ */
+public class Bulkhead {
+
+	static class Compartment {
+
+		int active;
+
+		Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+	}
+
+	private Map<String, Compartment> compartments = new ConcurrentHashMap<>();
+
+	private int maxConcurrent;
+
+	private int maxQueued;
+
+	/**
+	 * @param maxConcurrent The maximum number of concurrent requests per host.
+	 * @param maxQueued The maximum number of requests per host that wait for a permit.
+	 */
+	public Bulkhead(int maxConcurrent, int maxQueued) {
+		if (maxConcurrent < 1 || maxQueued < 0) {
+			throw new IllegalArgumentException("At least one concurrent request must be allowed");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * @return A future that completes when a permit for the host is available, or that
+	 * completes exceptionally with a RejectedExecutionException if the queue of the host
+	 * is full. Every permit must be given back with release().
+	 */
+	public CompletableFuture<Void> acquire(final String host) {
+		final CompletableFuture<Void> permit = new CompletableFuture<>();
+		compartments.compute(host, (h, c) -> {
+			if (c == null) {
+				c = new Compartment();
+			}
+			if (c.active < maxConcurrent) {
+				c.active++;
+				permit.complete(null);
+			} else if (c.waiting.size() < maxQueued) {
+				c.waiting.add(permit);
+			} else {
+				permit.completeExceptionally(new RejectedExecutionException("Too many requests to " + host + " in flight"));
+			}
+			return c.active == 0 && c.waiting.isEmpty() ? null : c;
+		});
+		return permit;
+	}
+
+	/**
+	 * Gives back a permit. The permit is handed over to the next waiting request, if any.
+	 */
+	public void release(String host) {
+		while (true) {
+			final AtomicReference<CompletableFuture<Void>> next = new AtomicReference<>();
+			compartments.computeIfPresent(host, (h, c) -> {
+				next.set(c.waiting.poll());
+				if (next.get() == null) {
+					c.active--;
+				}
+				return c.active == 0 && c.waiting.isEmpty() ? null : c;
+			});
+			// completed outside of compute() because it runs the dependent stages; a waiting
+			// request that has been cancelled in the meantime passes the permit on
+			if (next.get() == null || next.get().complete(null)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of requests in flight per host.
+	 */
+	public Map<String, Integer> getActive() {
+		Map<String, Integer> result = new TreeMap<>();
+		for (Map.Entry<String, Compartment> e : compartments.entrySet()) {
+			result.put(e.getKey(), e.getValue().active);
+		}
+		return result;
+	}
+
+}
\ No newline at end of file
@@ -18,30 +18,67 @@ package org.entrystore.ldcache.util;
 
 import org.apache.log4j.Logger;
 import org.entrystore.ldcache.LDCache;
+import org.entrystore.ldcache.cache.Resource;
 import org.openrdf.model.Model;
 import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
 import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.restlet.Client;
 import org.restlet.Context;
 import org.restlet.Request;
 import org.restlet.Response;
+import org.restlet.data.Encoding;
 import org.restlet.data.MediaType;
 import org.restlet.data.Method;
+import org.restlet.data.Preference;
 import org.restlet.data.Protocol;
 import org.restlet.data.Reference;
+import org.restlet.engine.application.DecodeRepresentation;
 import org.restlet.representation.Representation;
+import org.restlet.util.WrapperRepresentation;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
+ * Resources are fetched with two clients: the proxy uses Restlet's blocking client, the
+ * cache the JDK's asynchronous client. The latter can only be tuned with system properties
+ * that are read once per JVM, so they are not set here but have to be passed as JVM options,
+ * e.g. -Djdk.httpclient.redirects.retrylimit=10 to follow as many redirects as the blocking
+ * path and -Djdk.httpclient.keepalive.timeout=60 to keep idle connections for a minute.
+ *
  * @author Hannes Ebner
  */
 public class HttpUtil {
@@ -52,6 +89,33 @@ public class HttpUtil {
 
 	private static String USERAGENT;
 
+	private static String ACCEPT;
+
+	private static List<Preference<Encoding>> ACCEPTED_ENCODINGS = Arrays.asList(new Preference<>(Encoding.GZIP), new Preference<>(Encoding.DEFLATE));
+
+	private static HttpClient asyncClient;
+
+	private static long timeout;
+
+	private static volatile ResponseObserver responseObserver;
+
+	private static volatile Bulkhead bulkhead;
+
+	/**
+	 * Is notified about the outcome of every asynchronous request, including retries.
+	 */
+	public interface ResponseObserver {
+
+		/**
+		 * @param uri The requested URI.
+		 * @param response The response, or null if the request failed.
+		 * @param latency The time until the response was received, in milliseconds.
+		 * @param t The reason why the request failed, or null if there is a response.
+		 */
+		void observed(java.net.URI uri, HttpResponse<?> response, long latency, Throwable t);
+
+	}
+
 	static {
 		Context clientContext = new Context();
 		client = new Client(clientContext, Arrays.asList(Protocol.HTTP, Protocol.HTTPS));
@@ -67,33 +131,86 @@ public class HttpUtil {
 				append(")").
 				toString();
 		log.debug("User-Agent for HTTP requests set to \"" + USERAGENT + "\"");
+		StringBuilder accept = new StringBuilder();
+		for (Preference<MediaType> p : RdfMedia.RDF_FORMATS) {
+			if (accept.length() > 0) {
+				accept.append(", ");
+			}
+			accept.append(p.getMetadata().getName());
+		}
+		ACCEPT = accept.toString();
 	}
 
-	public static Response getResourceFromURL(String url, int loopCount, int retriesOnError, long timeBetweenRetries) {
+	/**
+	 * Fetches a resource and blocks until the response has been received. This is only
+	 * used where a caller has to wait for the response anyway, e.g. the proxy. Retries,
+	 * if any, are delayed according to the retry policy.
+	 *
+	 * If the number of concurrent requests per host is limited, every attempt waits for
+	 * a permit of the host. The permit of the returned response is held until the response
+	 * is released, so the caller must release it.
+	 *
+	 * @return The response, or null if there were too many redirects or the request was
+	 * rejected because too many requests to the host are in flight.
+	 */
+	public static Response getResourceFromURL(String url, int loopCount, RetryPolicy retryPolicy) {
 		if (loopCount > 10) {
 			log.warn("More than 10 redirect loops detected, aborting");
 			return null;
 		}
 
+		Bulkhead b = bulkhead;
+		String host = null;
+		if (b != null) {
+			try {
+				host = getCompartment(new java.net.URI(url));
+			} catch (URISyntaxException e) {
+				log.debug("Unable to parse <" + url + ">: " + e.getMessage());
+			}
+			if (host == null) {
+				log.warn("Unable to determine the host of <" + url + ">, not fetching it");
+				return null;
+			}
+		}
+
 		Request request = new Request(Method.GET, url);
 		request.getClientInfo().setAcceptedMediaTypes(RdfMedia.RDF_FORMATS);
+		request.getClientInfo().setAcceptedEncodings(ACCEPTED_ENCODINGS);
 		request.getClientInfo().setAgent(USERAGENT);
 		Response response = null;
-		int tries = 0;
-		do {
-			response = client.handle(request);
-			tries++;
-			if (retriesOnError > 0 && response.getStatus().isError()) {
-				try {
-					log.info("Error when fetching <" + url + ">, retrying in " + timeBetweenRetries + " ms");
-					Thread.sleep(timeBetweenRetries);
-				} catch (InterruptedException e) {
-					log.error(e.getMessage());
+		boolean permitted = false;
+		int retry = 0;
+		while (true) {
+			if (b != null) {
+				if (!acquire(b, host, url)) {
+					return null;
 				}
-			} else {
+				permitted = true;
+			}
+			response = client.handle(request);
+			int status = response.getStatus().getCode();
+			if (!response.getStatus().isConnectorError() && !RetryPolicy.isRetryable(status)) {
+				break;
+			}
+			long retryAfter = response.getRetryAfter() != null ? Math.max(0, response.getRetryAfter().getTime() - System.currentTimeMillis()) : -1;
+			long delay = retryPolicy.getDelay(++retry, retryAfter);
+			if (delay < 0) {
+				break;
+			}
+			log.info("Error " + status + " when fetching <" + url + ">, retrying in " + delay + " ms");
+			if (permitted) {
+				// the permit is not held while waiting for the retry
+				response.release();
+				b.release(host);
+				permitted = false;
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 				break;
 			}
-		} while (tries < retriesOnError);
+		}
 
 		// Alternative to calling the client directly:
 		// HttpClientHelper helper = new HttpClientHelper(client);
@@ -108,19 +225,284 @@ public class HttpUtil {
 				log.warn(e.getMessage());
 			}
 			response.getEntity().release();
+			if (permitted) {
+				b.release(host);
+				permitted = false;
+			}
 			if (ref != null) {
 				String refURL = ref.getIdentifier();
 				log.debug("Request redirected from <" + url + "> to <" + refURL + ">");
-				return getResourceFromURL(refURL, loopCount + 1, retriesOnError, timeBetweenRetries);
+				return getResourceFromURL(refURL, loopCount + 1, retryPolicy);
 			}
 		}
 
+		if (response.getEntity() != null && !response.getEntity().getEncodings().isEmpty()) {
+			// decompressed while it is read, callers get the entity as it would have been sent without compression
+			response.setEntity(new DecodeRepresentation(response.getEntity()));
+		}
+
 		if (response.getEntity() != null && response.getEntity().getLocationRef() != null && response.getEntity().getLocationRef().getBaseRef() == null) {
 			response.getEntity().getLocationRef().setBaseRef(url.substring(0, url.lastIndexOf("/")+1));
 		}
+
+		if (permitted) {
+			if (response.getEntity() != null) {
+				response.setEntity(new PermitRepresentation(response.getEntity(), b, host));
+			} else {
+				b.release(host);
+			}
+		}
 		return response;
 	}
 
+	/**
+	 * Waits for a permit of the host.
+	 *
+	 * @return True if a permit has been acquired, false if the request has been rejected or the thread has been interrupted.
+	 */
+	private static boolean acquire(Bulkhead b, String host, String url) {
+		CompletableFuture<Void> permit = b.acquire(host);
+		try {
+			permit.get();
+			return true;
+		} catch (ExecutionException e) {
+			log.warn("Not fetching <" + url + ">: " + e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (!permit.cancel(false)) {
+				// the permit has been granted in the meantime
+				b.release(host);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gives back the permit of a response when the response is released.
+	 */
+	private static class PermitRepresentation extends WrapperRepresentation {
+
+		private AtomicBoolean released = new AtomicBoolean();
+
+		private Bulkhead bulkhead;
+
+		private String host;
+
+		PermitRepresentation(Representation representation, Bulkhead bulkhead, String host) {
+			super(representation);
+			this.bulkhead = bulkhead;
+			this.host = host;
+		}
+
+		@Override
+		public void release() {
+			super.release();
+			if (released.compareAndSet(false, true)) {
+				bulkhead.release(host);
+			}
+		}
+
+	}
+
+	/**
+	 * Fetches a resource without blocking the calling thread. Redirects are followed by
+	 * the client, including redirects from HTTPS to HTTP like on the synchronous path, and
+	 * at most as many per request as the JVM option jdk.httpclient.redirects.retrylimit
+	 * allows (5 by default, 10 on the synchronous path). Retryable failures are retried as defined by the retry policy. The
+	 * retries are scheduled on a timer, no thread waits for them.
+	 *
+	 * The returned future completes exceptionally only if the last attempt could not
+	 * be sent at all, e.g. because the host could not be reached.
+	 *
+	 * @param url The URL to fetch.
+	 * @param retryPolicy Decides whether and when a failed request is retried.
+	 * @return A future response with the body as byte array.
+	 */
+	public static CompletableFuture<HttpResponse<byte[]>> getResourceFromURLAsync(String url, RetryPolicy retryPolicy) {
+		return getResourceFromURLAsync(url, null, null, retryPolicy);
+	}
+
+	/**
+	 * Like getResourceFromURLAsync(String, RetryPolicy), but sends a conditional request if
+	 * validators are provided. The response has status 304 and no body if the remote
+	 * resource has not changed.
+	 *
+	 * @param etag The ETag of the cached representation, sent as If-None-Match. May be null.
+	 * @param lastModified The Last-Modified value of the cached representation, sent as If-Modified-Since. May be null.
+	 */
+	public static CompletableFuture<HttpResponse<byte[]>> getResourceFromURLAsync(String url, String etag, String lastModified, RetryPolicy retryPolicy) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(java.net.URI.create(url)).
+				GET().
+				timeout(Duration.ofMillis(timeout)).
+				header("Accept", ACCEPT).
+				header("Accept-Encoding", "gzip, deflate").
+				header("User-Agent", USERAGENT);
+		if (etag != null) {
+			builder.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			builder.header("If-Modified-Since", lastModified);
+		}
+		return sendAsync(builder.build(), 0, retryPolicy);
+	}
+
+	public static void setResponseObserver(ResponseObserver observer) {
+		responseObserver = observer;
+	}
+
+	/**
+	 * @return The delay requested by the Retry-After header of a response in milliseconds,
+	 * or -1 if there is no valid Retry-After header.
+	 */
+	public static long getRetryAfter(HttpResponse<?> response) {
+		if (response == null) {
+			return -1;
+		}
+		String value = response.headers().firstValue("Retry-After").orElse(null);
+		if (value == null) {
+			return -1;
+		}
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException nfe) {
+			// not delay-seconds, must be an HTTP-date
+		}
+		try {
+			ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+			return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+		} catch (DateTimeParseException dtpe) {
+			log.debug("Invalid Retry-After header: " + value);
+		}
+		return -1;
+	}
+
+	public static boolean isNotModified(HttpResponse<?> response) {
+		return response != null && response.statusCode() == 304;
+	}
+
+	/**
+	 * Copies the validators and caching directives of a response to a resource,
+	 * so that it can be revalidated with a conditional request later on.
+	 */
+	public static void setValidators(Resource resource, HttpResponse<?> response) {
+		if (resource == null || response == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		resource.setETag(response.headers().firstValue("ETag").orElse(null));
+		resource.setLastModified(response.headers().firstValue("Last-Modified").orElse(null));
+		List<String> cacheControl = response.headers().allValues("Cache-Control");
+		resource.setCacheControl(cacheControl.isEmpty() ? null : String.join(", ", cacheControl));
+	}
+
+	/**
+	 * Limits the number of concurrent requests per host of both clients.
+	 *
+	 * The connection pools themselves are not configured here: Restlet's internal connector
+	 * has no configurable pool, and the keep-alive of the JDK client is a JVM option, see above.
+	 *
+	 * @param maxConnectionsPerHost The maximum number of concurrent requests per host.
+	 * @param maxQueuedPerHost The maximum number of requests per host that wait for one of
+	 *                         the host's connections; further requests are rejected.
+	 */
+	public static void setConnectionLimits(int maxConnectionsPerHost, int maxQueuedPerHost) {
+		bulkhead = new Bulkhead(maxConnectionsPerHost, maxQueuedPerHost);
+		log.info("Allowing up to " + maxConnectionsPerHost + " concurrent requests per host (" + maxQueuedPerHost + " queued)");
+	}
+
+	/**
+	 * @return The number of requests in flight per host, or an empty map if the number of
+	 * concurrent requests is not limited.
+	 */
+	public static Map<String, Integer> getActiveRequests() {
+		Bulkhead b = bulkhead;
+		return b != null ? b.getActive() : Collections.<String, Integer>emptyMap();
+	}
+
+	/**
+	 * @param retries The number of retries that have been made so far.
+	 */
+	private static CompletableFuture<HttpResponse<byte[]>> sendAsync(final HttpRequest request, final int retries, final RetryPolicy retryPolicy) {
+		return send(request).handle((response, t) -> {
+			Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+			boolean retryable = cause != null ? RetryPolicy.isRetryable(cause) : RetryPolicy.isRetryable(response.statusCode());
+			long delay = retryable ? retryPolicy.getDelay(retries + 1, getRetryAfter(response)) : -1;
+			if (delay >= 0) {
+				log.info("Error " + (cause != null ? cause.getClass().getSimpleName() : response.statusCode()) + " when fetching <" + request.uri() + ">, retrying in " + delay + " ms");
+				return CompletableFuture.supplyAsync(() -> request, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)).
+						thenCompose(r -> sendAsync(r, retries + 1, retryPolicy));
+			}
+			if (cause != null) {
+				return CompletableFuture.<HttpResponse<byte[]>>failedFuture(cause);
+			}
+			return CompletableFuture.completedFuture(response);
+		}).thenCompose(f -> f);
+	}
+
+	/**
+	 * Sends a single attempt of a request. If the number of concurrent requests is limited,
+	 * the attempt waits for a permit of the host and gives it back when the response has
+	 * been received, i.e. a permit is not held while waiting for a retry.
+	 */
+	private static CompletableFuture<HttpResponse<byte[]>> send(final HttpRequest request) {
+		final Bulkhead b = bulkhead;
+		if (b == null) {
+			return attempt(request);
+		}
+		final String host = getCompartment(request.uri());
+		if (host == null) {
+			return CompletableFuture.failedFuture(new IOException("Unable to determine the host of <" + request.uri() + ">"));
+		}
+		return b.acquire(host).thenCompose(v -> {
+			CompletableFuture<HttpResponse<byte[]>> attempt;
+			try {
+				attempt = attempt(request);
+			} catch (RuntimeException e) {
+				b.release(host);
+				throw e;
+			}
+			return attempt.whenComplete((response, t) -> b.release(host));
+		});
+	}
+
+	/**
+	 * @return The host of a URI, or its authority if the host cannot be parsed, e.g.
+	 * because it contains an underscore. Null if the URI has no authority.
+	 */
+	static String getCompartment(java.net.URI uri) {
+		if (uri.getHost() != null) {
+			return uri.getHost();
+		}
+		return uri.getRawAuthority();
+	}
+
+	private static CompletableFuture<HttpResponse<byte[]>> attempt(final HttpRequest request) {
+		final long start = System.nanoTime();
+		return getAsyncClient().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, t) -> {
+			ResponseObserver observer = responseObserver;
+			if (observer != null) {
+				try {
+					observer.observed(request.uri(), response, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), t);
+				} catch (RuntimeException e) {
+					log.error("Response observer failed: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	private static synchronized HttpClient getAsyncClient() {
+		if (asyncClient == null) {
+			asyncClient = HttpClient.newBuilder().
+					version(HttpClient.Version.HTTP_1_1).
+					followRedirects(HttpClient.Redirect.ALWAYS).
+					connectTimeout(Duration.ofMillis(timeout)).
+					build();
+			log.debug("Initialized asynchronous HTTP client, redirect limit: " + System.getProperty("jdk.httpclient.redirects.retrylimit", "default") +
+					", keep-alive: " + System.getProperty("jdk.httpclient.keepalive.timeout", "default"));
+		}
+		return asyncClient;
+	}
+
 	public static Model getModelFromResponse(URI r, Response response) {
 		if (response == null) {
 			throw new IllegalArgumentException();
@@ -157,7 +539,106 @@ public class HttpUtil {
 		return result;
 	}
 
+	public static Model getModelFromResponse(URI r, HttpResponse<byte[]> response) {
+		return getModelFromResponse(r, response, null);
+	}
+
+	/**
+	 * Parses the body of a response. Literals are filtered by the language whitelist while
+	 * the body is parsed, see LanguageFilter.
+	 *
+	 * @param includeLiteralLanguages The language whitelist, or null if nothing should be filtered.
+	 * @return The parsed graph, or null if the response could not be parsed.
+	 */
+	public static Model getModelFromResponse(URI r, HttpResponse<byte[]> response, Set<String> includeLiteralLanguages) {
+		if (response == null) {
+			throw new IllegalArgumentException();
+		}
+		if (response.statusCode() >= 400) {
+			log.warn("Skipping response from <" + r + "> due to error status: " + response.statusCode());
+			return null;
+		}
+		byte[] body = response.body();
+		Model result = null;
+		if (body != null && body.length > 0) {
+			RDFFormat rdfFormat = getParserFormat(response);
+			if (rdfFormat != null) {
+				try {
+					Model model = new LinkedHashModel();
+					RDFHandler handler = new StatementCollector(model);
+					if (includeLiteralLanguages != null && !LanguageFilter.matchesAll(includeLiteralLanguages)) {
+						handler = new LanguageFilter(handler, r, includeLiteralLanguages);
+					}
+					RDFParser parser = Rio.createParser(rdfFormat);
+					parser.setRDFHandler(handler);
+					InputStream in = getBodyStream(response);
+					try {
+						parser.parse(in, "");
+					} finally {
+						in.close();
+					}
+					result = model;
+				} catch (IOException e) {
+					log.error("IO error " + e.getMessage());
+				} catch (RDFParseException e) {
+					log.error("Unable to parse RDF " + e.getMessage());
+				} catch (RDFHandlerException e) {
+					log.error("RDF handler " + e.getMessage());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the body of a response as stream that is decompressed while it is read.
+	 * The body is kept compressed in memory until it is parsed.
+	 *
+	 * @throws IOException If the Content-Encoding of the response is not supported.
+	 */
+	public static InputStream getBodyStream(HttpResponse<byte[]> response) throws IOException {
+		byte[] body = response.body();
+		InputStream in = new ByteArrayInputStream(body);
+		String encoding = response.headers().firstValue("Content-Encoding").orElse("").trim().toLowerCase();
+		if (encoding.isEmpty() || "identity".equals(encoding)) {
+			return in;
+		} else if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+			return new GZIPInputStream(in, 8192);
+		} else if ("deflate".equals(encoding)) {
+			// deflate is supposed to be zlib-wrapped, but some servers send raw deflate data
+			boolean zlib = body.length > 1 && (body[0] & 0x0f) == 8 && (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+			final Inflater inflater = new Inflater(!zlib);
+			return new InflaterInputStream(in, inflater, 8192) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inflater.end();
+				}
+			};
+		}
+		throw new IOException("Unsupported Content-Encoding: " + encoding);
+	}
+
+	/**
+	 * @return The parser format for the media type of a response, or null if the media type
+	 * is missing or not supported.
+	 */
+	public static RDFFormat getParserFormat(HttpResponse<?> response) {
+		String mt = response.headers().firstValue("Content-Type").orElse(null);
+		if (mt == null) {
+			return null;
+		}
+		if (mt.indexOf(';') > -1) {
+			mt = mt.substring(0, mt.indexOf(';'));
+		}
+		mt = mt.trim().toLowerCase();
+		RDFFormat rdfFormat = Rio.getParserFormatForMIMEType(mt);
+		log.debug("Got parser format " + rdfFormat + " for MIME type " + mt);
+		return rdfFormat;
+	}
+
 	public static void setTimeouts(long timeout) {
+		HttpUtil.timeout = timeout;
 		String timeoutStr = Long.toString(timeout);
 		client.getContext().getParameters().set("connectTimeout", timeoutStr);
 		client.getContext().getParameters().set("socketTimeout", timeoutStr);
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerWrapper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes literals that do not match a language whitelist while statements are passed on
+ * to another handler, e.g. from a parser to a statement collector.
+ *
+ * The same rules as in ModelUtil.filterLanguageLiterals() apply. Statements of the root
+ * resource with a literal in a language that is not whitelisted are dropped right away.
+ * Statements with a BNode in object position are held back until endRDF(), because only
+ * then it is known whether the BNode has literals that are not whitelisted (in which case
+ * a statement from the root resource to the BNode is dropped) or whether it appears in
+ * subject position at all (if not, the statement is dropped as dangling). All other
+ * statements are passed on immediately.
+ *
+ * @author Hannes Ebner
+ */
+public class LanguageFilter extends RDFHandlerWrapper {
+
+	private URI rootResource;
+
+	private Set<String> languageWhitelist;
+
+	private Set<BNode> subjects = new HashSet<>();
+
+	private Set<BNode> filteredBNodes = new HashSet<>();
+
+	private List<Statement> deferred = new ArrayList<>();
+
+	/**
+	 * @param handler The handler that receives the filtered statements.
+	 * @param rootResource The starting point for the filter.
+	 * @param languageWhitelist The languages that should not be removed. The whitelist may
+	 *                          contain "null" or be empty, which matches all literals without
+	 *                          an explicit language set. "*" matches all literals.
+	 */
+	public LanguageFilter(RDFHandler handler, URI rootResource, Set<String> languageWhitelist) {
+		super(handler);
+		if (rootResource == null || languageWhitelist == null) {
+			throw new IllegalArgumentException("Parameters must not be null");
+		}
+		this.rootResource = rootResource;
+		if (languageWhitelist.size() == 0 || languageWhitelist.contains("")) {
+			// we don't want to modify the original list
+			languageWhitelist = new HashSet<>(languageWhitelist);
+			languageWhitelist.remove("");
+			languageWhitelist.add(null);
+		}
+		this.languageWhitelist = languageWhitelist;
+	}
+
+	/**
+	 * @return True if the whitelist matches all literals and the filter does not drop anything.
+	 */
+	public static boolean matchesAll(Set<String> languageWhitelist) {
+		return languageWhitelist != null && languageWhitelist.contains("*");
+	}
+
+	@Override
+	public void startRDF() throws RDFHandlerException {
+		subjects.clear();
+		filteredBNodes.clear();
+		deferred.clear();
+		super.startRDF();
+	}
+
+	@Override
+	public void handleStatement(Statement st) throws RDFHandlerException {
+		if (matchesAll(languageWhitelist)) {
+			super.handleStatement(st);
+			return;
+		}
+		Value o = st.getObject();
+		boolean filtered = o instanceof Literal && !languageWhitelist.contains(((Literal) o).getLanguage());
+		if (st.getSubject() instanceof BNode) {
+			subjects.add((BNode) st.getSubject());
+			if (filtered) {
+				filteredBNodes.add((BNode) st.getSubject());
+			}
+		}
+		if (o instanceof BNode) {
+			deferred.add(st);
+		} else if (!filtered || !rootResource.equals(st.getSubject())) {
+			super.handleStatement(st);
+		}
+	}
+
+	@Override
+	public void endRDF() throws RDFHandlerException {
+		for (Statement st : deferred) {
+			BNode o = (BNode) st.getObject();
+			if (!subjects.contains(o)) {
+				continue;
+			}
+			if (rootResource.equals(st.getSubject()) && filteredBNodes.contains(o)) {
+				continue;
+			}
+			super.handleStatement(st);
+		}
+		deferred.clear();
+		super.endRDF();
+	}
+
+}
\ No newline at end of file
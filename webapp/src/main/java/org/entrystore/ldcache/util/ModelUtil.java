@@ -16,17 +16,17 @@
 
 package org.entrystore.ldcache.util;
 
-import org.openrdf.model.BNode;
-import org.openrdf.model.Literal;
+import org.apache.log4j.Logger;
 import org.openrdf.model.Model;
 import org.openrdf.model.Resource;
-import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -34,6 +34,8 @@ import java.util.Set;
  */
 public class ModelUtil {
 
+	static Logger log = Logger.getLogger(ModelUtil.class);
+
 	/**
 	 * Converts a set of Resources to a set of URIs. Removes non-URIs, i.e., BNodes, Literals, etc.
 	 *
@@ -72,7 +74,10 @@ public class ModelUtil {
 	 * The algorithm is limited to a maximum of two levels from the root resource: it is checked for
 	 * Literals and BNodes in object position and the root resources in subject position. If the object is a
 	 * BNode (as it is the case with e.g. dcterms:description etc), one more step is made to find the literal
-	 * and remove it together with all affected BNode statements.
+	 * and remove it together with all affected BNode statements. Statements with BNodes in object position
+	 * that never appear in subject position are removed as well.
+	 *
+	 * The model is processed in a single pass, see LanguageFilter.
 	 *
 	 * @param m The input model. Will not be modified.
 	 * @param rootResource The starting point for the algorithm.
@@ -85,56 +90,15 @@ public class ModelUtil {
 		if (m == null || rootResource == null || languageWhitelist == null) {
 			throw new IllegalArgumentException("Parameters must not be null");
 		}
-		if (languageWhitelist.contains("*")) {
+		if (LanguageFilter.matchesAll(languageWhitelist)) {
 			return m;
 		}
-		if (languageWhitelist.size() == 0 || languageWhitelist.contains("")) {
-			// we don't want to modify the original list
-			languageWhitelist = new HashSet<>(languageWhitelist);
-			languageWhitelist.remove("");
-			languageWhitelist.add(null);
-		}
-		Model result = new LinkedHashModel(m);
-		Iterator<Statement> stmntIt = m.filter(rootResource, null, null).iterator();
-		while (stmntIt.hasNext()) {
-			Statement s = stmntIt.next();
-			Value o = s.getObject();
-			if (o instanceof Literal && !languageWhitelist.contains(((Literal) o).getLanguage())) {
-				result.remove(s);
-			} else if (o instanceof BNode) {
-				Iterator<Statement> indirectStmntIt = m.filter((BNode) o, null, null).iterator();
-				while (indirectStmntIt.hasNext()) {
-					Statement s2 = indirectStmntIt.next();
-					Value o2 = s2.getObject();
-					if (o2 instanceof Literal && !languageWhitelist.contains(((Literal) o2).getLanguage())) {
-						result.remove(s);
-					}
-				}
-			}
-		}
-		return removeDanglingBNodes(result);
-	}
-
-	/**
-	 * Removes all statements where a BNode appears in object position,
-	 * but otherwise never appears in subject position.
-	 *
-	 * This method ignores the statements' context.
-	 *
-	 * @param model The input model. Will not be modified.
-	 * @return A model from which dangling BNodes have been removed.
-	 */
-	private static Model removeDanglingBNodes(Model model) {
-		if (model == null) {
-			throw new IllegalArgumentException("Parameter must not be null");
-		}
-		Model result = new LinkedHashModel(model);
-		for (Value object : model.objects()) {
-			if (object instanceof BNode) {
-				if (model.filter((BNode) object, null, null).size() == 0) {
-					result.remove(null, null, object);
-				}
-			}
+		Model result = new LinkedHashModel();
+		try {
+			Rio.write(m, new LanguageFilter(new StatementCollector(result), rootResource, languageWhitelist));
+		} catch (RDFHandlerException e) {
+			// does not happen, the statement collector does not throw
+			log.error(e.getMessage());
 		}
 		return result;
 	}
@@ -31,10 +31,46 @@ public class Properties {
 
 	public static URI ldcResource;
 
+	public static URI ldcETag;
+
+	public static URI ldcLastModified;
+
+	public static URI ldcCacheControl;
+
+	public static URI ldcFailureClass;
+
+	public static URI ldcFailures;
+
+	public static URI ldcRetryAfter;
+
+	public static URI ldcFingerprint;
+
+	public static URI ldcLink;
+
+	public static URI ldcLinksIndexed;
+
+	public static URI ldcLastValidated;
+
+	public static URI ldcTTL;
+
+	public static URI ldcLanguage;
+
 	static {
 		valueFactory = new ValueFactoryImpl();
 		dctModified = valueFactory.createURI(NS.dcterms, "modified");
 		ldcResource = valueFactory.createURI(NS.ldc, "resource");
+		ldcETag = valueFactory.createURI(NS.ldc, "etag");
+		ldcLastModified = valueFactory.createURI(NS.ldc, "lastModified");
+		ldcCacheControl = valueFactory.createURI(NS.ldc, "cacheControl");
+		ldcFailureClass = valueFactory.createURI(NS.ldc, "failureClass");
+		ldcFailures = valueFactory.createURI(NS.ldc, "failures");
+		ldcRetryAfter = valueFactory.createURI(NS.ldc, "retryAfter");
+		ldcFingerprint = valueFactory.createURI(NS.ldc, "fingerprint");
+		ldcLink = valueFactory.createURI(NS.ldc, "link");
+		ldcLinksIndexed = valueFactory.createURI(NS.ldc, "linksIndexed");
+		ldcLastValidated = valueFactory.createURI(NS.ldc, "lastValidated");
+		ldcTTL = valueFactory.createURI(NS.ldc, "ttl");
+		ldcLanguage = valueFactory.createURI(NS.ldc, "language");
 	}
 
 	public static ValueFactory getValueFactory() {
@@ -45,6 +45,8 @@ public class RdfMedia {
 		for (Preference<MediaType> p : RDF_FORMATS) {
 			SUPPORTED_MEDIA_TYPES.add(p.getMetadata());
 		}
+		// only offered for responses, remote sources are hardly ever able to provide it
+		SUPPORTED_MEDIA_TYPES.add(new MediaType(RDFFormat.BINARY.getDefaultMIMEType()));
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.apache.log4j.Logger;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.Rio;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Representation that serializes RDF directly to the response stream.
+ *
+ * The size is unknown up front, so the response is sent with chunked transfer encoding.
+ * The serialized output passes through a buffer of fixed size which is flushed to the
+ * client whenever it is full, i.e. the memory needed for writing does not depend on the
+ * size of the graph and the first bytes are sent before serialization has completed.
+ *
+ * @author Hannes Ebner
+ */
+public abstract class RdfRepresentation extends OutputRepresentation {
+
+	static Logger log = Logger.getLogger(RdfRepresentation.class);
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private RDFFormat format;
+
+	public RdfRepresentation(MediaType mediaType, RDFFormat format) {
+		super(mediaType);
+		if (format == null) {
+			throw new IllegalArgumentException("RDF format must not be null");
+		}
+		this.format = format;
+		setSize(UNKNOWN_SIZE);
+	}
+
+	/**
+	 * Reports the RDF to be serialized to the handler, including the calls to
+	 * startRDF() and endRDF().
+	 */
+	protected abstract void write(RDFHandler handler) throws RDFHandlerException;
+
+	@Override
+	public void write(OutputStream outputStream) throws IOException {
+		BufferedOutputStream out = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+		try {
+			write(Rio.createWriter(format, out));
+		} catch (RDFHandlerException e) {
+			log.error("Unable to write RDF: " + e.getMessage());
+			throw new IOException(e);
+		}
+		out.flush();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed request is retried.
+ *
+ * Only failures that may go away by themselves are retried: connection errors and
+ * timeouts, 408, 429 and server errors except 501 and 505. All other error statuses,
+ * e.g. 404, are terminal.
+ *
+ * The delay doubles with every retry, starting at the base delay and capped by the
+ * maximum delay. Half of the delay is randomized, so that requests that failed at the
+ * same time are not retried at the same time. A delay requested by Retry-After is
+ * respected; if it exceeds the maximum delay the request is not retried at all.
+ *
+ * @author Hannes Ebner
+ */
+public class RetryPolicy {
+
+	public static RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+	private int maxRetries;
+
+	private long baseDelay;
+
+	private long maxDelay;
+
+	/**
+	 * @param maxRetries The maximum number of retries after the first attempt.
+	 * @param baseDelay The delay before the first retry in milliseconds.
+	 * @param maxDelay The maximum delay before a retry in milliseconds.
+	 */
+	public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+		if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return True if a request that failed with the status code may succeed later.
+	 */
+	public static boolean isRetryable(int status) {
+		if (status == 408 || status == 429) {
+			return true;
+		}
+		return status >= 500 && status != 501 && status != 505;
+	}
+
+	/**
+	 * @return True if a request that could not be sent or answered may succeed later.
+	 */
+	public static boolean isRetryable(Throwable t) {
+		return t instanceof IOException;
+	}
+
+	/**
+	 * @param retry The number of the upcoming retry, starting at 1.
+	 * @param retryAfter The delay requested by the server in milliseconds, or -1.
+	 * @return The delay before the retry in milliseconds, or -1 if the request should not
+	 * be retried anymore.
+	 */
+	public long getDelay(int retry, long retryAfter) {
+		if (retry < 1 || retry > maxRetries) {
+			return -1;
+		}
+		if (retryAfter > maxDelay) {
+			return -1;
+		}
+		// the shift is capped to avoid an overflow, the result is capped by maxDelay anyway
+		long delay = Math.min(baseDelay << Math.min(retry - 1, 20), maxDelay);
+		delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		return Math.max(delay, retryAfter);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Hannes Ebner
+ */
+public class ResultCacheTest {
+
+	static URI a = new URIImpl("http://example.org/a");
+
+	static URI b = new URIImpl("http://example.org/b");
+
+	ResultCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new ResultCache(1024 * 1024, 1024);
+	}
+
+	private static Set<URI> set(URI... uris) {
+		Set<URI> result = new HashSet<>();
+		Collections.addAll(result, uris);
+		return result;
+	}
+
+	/**
+	 * Waits until another thread waits for the result that is computed for the key.
+	 */
+	private void awaitFollower(String key) {
+		CompletableFuture<ResultCache.Result> inFlight = cache.pending.get(key);
+		// a thread that is blocked in get() is a dependent of the future
+		while (inFlight.getNumberOfDependents() == 0) {
+			Thread.yield();
+		}
+	}
+
+	private void compute(String key, String data, Set<URI> dependencies) throws IOException {
+		ResultCache.Lease lease = cache.acquire(key);
+		assertNull(lease.getResult());
+		OutputStream out = lease.capture(new ByteArrayOutputStream());
+		out.write(data.getBytes(StandardCharsets.UTF_8));
+		lease.complete(dependencies);
+	}
+
+	@Test
+	public void completedResultIsCached() throws IOException {
+		compute("k", "result", set(a));
+		ResultCache.Result r = cache.acquire("k").getResult();
+		assertNotNull(r);
+		assertArrayEquals("result".getBytes(StandardCharsets.UTF_8), r.getData());
+	}
+
+	@Test
+	public void abandonedResultIsNotCached() {
+		ResultCache.Lease lease = cache.acquire("k");
+		lease.capture(new ByteArrayOutputStream());
+		lease.abandon();
+		assertEquals(0, cache.size());
+		assertNull(cache.acquire("k").getResult());
+	}
+
+	@Test
+	public void oversizedResultIsNotCached() throws IOException {
+		ResultCache.Lease lease = cache.acquire("k");
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		lease.capture(client).write(new byte[cache.getMaxEntrySize() + 1]);
+		lease.complete(set(a));
+		// the client gets everything regardless
+		assertEquals(cache.getMaxEntrySize() + 1, client.size());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void invalidationEvictsDependentsOnly() throws IOException {
+		compute("ka", "a", set(a));
+		compute("kb", "b", set(b));
+		compute("kab", "ab", set(a, b));
+		cache.invalidate(Collections.singleton(a));
+		assertNull(cache.acquire("ka").getResult());
+		assertNull(cache.acquire("kab").getResult());
+		assertNotNull(cache.acquire("kb").getResult());
+	}
+
+	@Test
+	public void writeDuringComputationIsNotCached() throws IOException {
+		ResultCache.Lease lease = cache.acquire("k");
+		lease.capture(new ByteArrayOutputStream()).write(1);
+		cache.invalidate(Collections.singleton(a));
+		lease.complete(set(a));
+		assertNull(cache.acquire("k").getResult());
+	}
+
+	@Test
+	public void unrelatedWriteDuringComputationKeepsResult() throws IOException {
+		ResultCache.Lease lease = cache.acquire("k");
+		lease.capture(new ByteArrayOutputStream()).write(1);
+		cache.invalidate(Collections.singleton(b));
+		lease.complete(set(a));
+		assertNotNull(cache.acquire("k").getResult());
+	}
+
+	@Test
+	public void writeBeforeComputationDoesNotAffectLaterLeases() throws IOException {
+		cache.invalidate(Collections.singleton(a));
+		compute("k", "a", set(a));
+		assertNotNull(cache.acquire("k").getResult());
+	}
+
+	@Test(timeout = 10000)
+	public void replacedResultKeepsIndexEntries() throws Exception {
+		// two leases compute the same key if the first leader gives up while a follower waits
+		ResultCache.Lease leader = cache.acquire("k");
+		CompletableFuture<ResultCache.Lease> follower = CompletableFuture.supplyAsync(() -> cache.acquire("k"));
+		awaitFollower("k");
+		leader.abandon();
+		ResultCache.Lease first = follower.get(5, TimeUnit.SECONDS);
+		ResultCache.Lease second = cache.acquire("k");
+		assertNull(first.getResult());
+		assertNull(second.getResult());
+		first.capture(new ByteArrayOutputStream()).write(1);
+		first.complete(set(a));
+		second.capture(new ByteArrayOutputStream()).write(2);
+		second.complete(set(a));
+		cache.invalidate(Collections.singleton(a));
+		assertNull(cache.acquire("k").getResult());
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentRequestsWaitForLeader() throws Exception {
+		final ResultCache.Lease leader = cache.acquire("k");
+		assertNull(leader.getResult());
+		CompletableFuture<ResultCache.Result> follower = CompletableFuture.supplyAsync(() -> cache.acquire("k").getResult());
+		awaitFollower("k");
+		leader.capture(new ByteArrayOutputStream()).write("x".getBytes(StandardCharsets.UTF_8));
+		leader.complete(set(a));
+		ResultCache.Result r = follower.get(5, TimeUnit.SECONDS);
+		assertNotNull(r);
+		assertArrayEquals("x".getBytes(StandardCharsets.UTF_8), r.getData());
+	}
+
+	@Test(timeout = 10000)
+	public void followerComputesIfLeaderAbandons() throws Exception {
+		final ResultCache.Lease leader = cache.acquire("k");
+		CompletableFuture<ResultCache.Lease> follower = CompletableFuture.supplyAsync(() -> cache.acquire("k"));
+		awaitFollower("k");
+		leader.abandon();
+		ResultCache.Lease lease = follower.get(5, TimeUnit.SECONDS);
+		assertNull(lease.getResult());
+		lease.capture(new ByteArrayOutputStream()).write(1);
+		lease.complete(set(a));
+		assertNotNull(cache.acquire("k").getResult());
+	}
+
+	@Test(timeout = 10000)
+	public void followerIsReleasedWhenResultIsTooLarge() throws Exception {
+		final ResultCache.Lease leader = cache.acquire("k");
+		CompletableFuture<ResultCache.Lease> follower = CompletableFuture.supplyAsync(() -> cache.acquire("k"));
+		awaitFollower("k");
+		OutputStream out = leader.capture(new ByteArrayOutputStream());
+		out.write(new byte[cache.getMaxEntrySize()]);
+		assertFalse(follower.isDone());
+		out.write(1);
+		// released while the leader is still writing
+		ResultCache.Lease lease = follower.get(5, TimeUnit.SECONDS);
+		assertNull(lease.getResult());
+		leader.complete(set(a));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void keyIgnoresOrderOfSetValues() {
+		Set<String> l1 = new LinkedHashSet<>();
+		l1.add("en");
+		l1.add("sv");
+		Set<String> l2 = new LinkedHashSet<>();
+		l2.add("sv");
+		l2.add("en");
+		assertEquals(ResultCache.createKey(a, set(a, b), null, null, l1, 1, "text/turtle"),
+				ResultCache.createKey(a, set(b, a), null, null, l2, 1, "text/turtle"));
+	}
+
+}
\ No newline at end of file
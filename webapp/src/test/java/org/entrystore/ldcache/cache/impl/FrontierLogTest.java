@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class FrontierLogTest {
+
+	static URI a = new URIImpl("http://example.org/a");
+
+	static URI b = new URIImpl("http://example.org/b");
+
+	static URI c = new URIImpl("http://example.org/c");
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("ldcache-test", ".frontier");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static Set<URI> set(URI... uris) {
+		return new HashSet<>(Arrays.asList(uris));
+	}
+
+	private void write(String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String read() throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private FrontierLog.Checkpoint open(String fingerprint) throws IOException {
+		FrontierLog log = new FrontierLog(file, fingerprint);
+		log.open();
+		log.close();
+		return log.getCheckpoint();
+	}
+
+	@Test
+	public void resumesInterruptedLevel() throws IOException {
+		FrontierLog log = new FrontierLog(file, "fp");
+		file.delete();
+		log.open();
+		assertNull(log.getCheckpoint());
+		log.startLevel(1, set(a, b));
+		log.expanded(a, set(c));
+		log.close();
+
+		FrontierLog.Checkpoint cp = open("fp");
+		assertNotNull(cp);
+		assertEquals(1, cp.level);
+		assertEquals(set(b), cp.pending);
+		assertEquals(set(c), cp.next);
+		assertEquals(set(a, b), cp.visited);
+	}
+
+	@Test
+	public void failedResourcesAreRecorded() throws IOException {
+		FrontierLog log = new FrontierLog(file, "fp");
+		file.delete();
+		log.open();
+		log.startLevel(1, set(a, b, c));
+		log.failed(a);
+		log.expanded(b, Collections.<URI>emptySet());
+		log.close();
+
+		FrontierLog.Checkpoint cp = open("fp");
+		assertEquals(set(c), cp.pending);
+		assertEquals(set(a), cp.failed);
+		assertEquals(set(a, b, c), cp.visited);
+	}
+
+	@Test
+	public void finishedPopulationIsNotResumed() throws IOException {
+		FrontierLog log = new FrontierLog(file, "fp");
+		file.delete();
+		log.open();
+		log.startLevel(1, set(a));
+		log.expanded(a, Collections.<URI>emptySet());
+		log.finished();
+		log.close();
+		assertNull(open("fp"));
+	}
+
+	@Test
+	public void changedConfigurationIsNotResumed() throws IOException {
+		write("C fp\nL 1\nF http://example.org/a\n");
+		assertNull(open("other"));
+		// the log has been restarted with the new fingerprint
+		assertEquals("C other\n", read());
+	}
+
+	@Test
+	public void laterLevelReplacesEarlierOne() throws IOException {
+		write("C fp\nL 1\nF http://example.org/a\nN http://example.org/b\nD http://example.org/a\nL 2\nF http://example.org/b\n");
+		FrontierLog.Checkpoint cp = open("fp");
+		assertEquals(2, cp.level);
+		assertEquals(set(b), cp.pending);
+		assertTrue(cp.next.isEmpty());
+		assertEquals(set(a, b), cp.visited);
+	}
+
+	@Test
+	public void truncatedLastLineIsIgnored() throws IOException {
+		// the crash happened while "D http://example.org/bc" was written, the partial line is a valid URI
+		String complete = "C fp\nL 1\nF http://example.org/b\nF http://example.org/bc\n";
+		write(complete + "D http://example.org/b");
+		URI bc = new URIImpl("http://example.org/bc");
+		assertEquals(set(b, bc), open("fp").pending);
+		// the partial line has been removed, so that it is not mistaken for a complete one later
+		assertEquals(complete, read());
+		assertEquals(set(b, bc), open("fp").pending);
+	}
+
+	@Test
+	public void invalidLinesAreSkipped() throws IOException {
+		write("C fp\nL 1\nF http://example.org/a\nF not a uri\nX something\n\nF http://example.org/b\n");
+		assertEquals(set(a, b), open("fp").pending);
+	}
+
+	@Test
+	public void fileNamesDoNotCollide() {
+		assertNotEquals(FrontierLog.getFileName("a b"), FrontierLog.getFileName("a_b"));
+		assertEquals(FrontierLog.getFileName("a b"), FrontierLog.getFileName("a b"));
+		assertTrue(FrontierLog.getFileName("a/../b").matches("[A-Za-z0-9._-]+"));
+	}
+
+	@Test
+	public void fingerprintIgnoresOrder() {
+		assertEquals(FrontierLog.fingerprint(set(a, b), set(c), null, null, null, 2),
+				FrontierLog.fingerprint(set(b, a), set(c), null, null, null, 2));
+		assertNotEquals(FrontierLog.fingerprint(set(a), null, null, null, null, 2),
+				FrontierLog.fingerprint(set(a), null, null, null, null, 3));
+	}
+
+}
\ No newline at end of file
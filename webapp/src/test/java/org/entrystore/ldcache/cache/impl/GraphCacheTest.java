@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.junit.Test;
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Hannes Ebner
+ */
+public class GraphCacheTest {
+
+	static URI a = new URIImpl("http://example.org/a");
+
+	static URI b = new URIImpl("http://example.org/b");
+
+	GraphCache cache = new GraphCache(1000);
+
+	private static Model graph(URI r) {
+		Model m = new LinkedHashModel();
+		m.add(r, RDF.TYPE, RDFS.RESOURCE);
+		return m;
+	}
+
+	@Test
+	public void graphIsCached() {
+		cache.put(a, graph(a), cache.getGeneration(a));
+		assertEquals(graph(a), cache.get(a));
+	}
+
+	@Test
+	public void invalidationDuringLoadDiscardsGraph() {
+		long generation = cache.getGeneration(a);
+		cache.invalidate(Collections.singleton(a));
+		cache.put(a, graph(a), generation);
+		assertNull(cache.get(a));
+	}
+
+	@Test
+	public void invalidationOfOtherResourceKeepsGraph() {
+		long generation = cache.getGeneration(a);
+		// a and b are in different stripes
+		cache.invalidate(Collections.singleton(b));
+		cache.put(a, graph(a), generation);
+		assertNotNull(cache.get(a));
+	}
+
+	@Test
+	public void invalidationEvictsGraph() {
+		cache.put(a, graph(a), cache.getGeneration(a));
+		cache.put(b, graph(b), cache.getGeneration(b));
+		cache.invalidate(Collections.singleton(a));
+		assertNull(cache.get(a));
+		assertNotNull(cache.get(b));
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class HostRateLimiterTest {
+
+	@Test
+	public void slotsAreReservedInOrder() throws JSONException {
+		HostRateLimiter limiter = new HostRateLimiter(2.0, new JSONObject("{\"enabled\": false}"), null);
+		assertEquals(0, limiter.reserve("example.org"));
+		long previous = 0;
+		for (int i = 1; i <= 10; i++) {
+			long delay = limiter.reserve("example.org");
+			// 500 ms after the previous slot, give or take the time that has passed in between
+			assertTrue("Slot " + i + " in " + delay + " ms", delay > previous + 400 && delay <= previous + 500);
+			previous = delay;
+		}
+		// other hosts have slots of their own
+		assertEquals(0, limiter.reserve("example.com"));
+	}
+
+	@Test
+	public void slotsStartAfterRetryAfter() throws JSONException {
+		HostRateLimiter limiter = new HostRateLimiter(2.0, new JSONObject("{\"enabled\": false}"), null);
+		limiter.observe("example.org", 503, 10, 3000, null);
+		assertTrue(limiter.getPause("example.org") > 2900);
+		long first = limiter.reserve("example.org");
+		long second = limiter.reserve("example.org");
+		assertTrue(first > 2900 && first <= 3000);
+		assertTrue(second > first + 400 && second <= first + 500);
+	}
+
+	@Test
+	public void rateIsReducedOnOverload() throws JSONException {
+		HostRateLimiter limiter = new HostRateLimiter(2.0, new JSONObject("{\"decrease\": 0.5}"), null);
+		limiter.observe("example.org", 429, 10, -1, null);
+		assertEquals(1.0, limiter.getRates().get("example.org"), 0.0001);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.entrystore.ldcache.cache.impl.NegativeCache.FailureClass;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class NegativeCacheTest {
+
+	static URI r = new URIImpl("http://example.org/r");
+
+	SailRepository repository;
+
+	RepositoryWriter writer;
+
+	NegativeCache cache;
+
+	@Before
+	public void setUp() throws RepositoryException, JSONException {
+		repository = new SailRepository(new MemoryStore());
+		repository.initialize();
+		writer = new RepositoryWriter(repository, 100, 0);
+		cache = new NegativeCache(repository, writer, config());
+	}
+
+	@After
+	public void tearDown() throws RepositoryException {
+		writer.shutdown();
+		repository.shutDown();
+	}
+
+	/**
+	 * Waits until all writes that have been queued so far are committed.
+	 */
+	private void flush() {
+		writer.update(NegativeCache.CONTEXT, rc -> {}).join();
+	}
+
+	private static JSONObject config() throws JSONException {
+		return new JSONObject("{\"backoff\": {\"SERVER_ERROR\": 10, \"CLIENT_ERROR\": 100}, \"maxBackoff\": 35}");
+	}
+
+	/**
+	 * @return The backoff window of the resource in seconds, measured from now.
+	 */
+	private long backoff(URI uri) {
+		return Math.round((cache.entries.get(uri).retryAfter.getTime() - System.currentTimeMillis()) / 1000.0);
+	}
+
+	@Test
+	public void failedResourceIsBlockedUntilSuccess() {
+		assertFalse(cache.isBlocked(r));
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		assertTrue(cache.isBlocked(r));
+		assertEquals(1, cache.size());
+		cache.succeeded(r);
+		assertFalse(cache.isBlocked(r));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void backoffDoublesUpToMaximum() {
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		assertEquals(10, backoff(r));
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		assertEquals(20, backoff(r));
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		assertEquals(35, backoff(r));
+		for (int i = 0; i < 100; i++) {
+			cache.failed(r, FailureClass.SERVER_ERROR);
+		}
+		assertEquals(35, backoff(r));
+	}
+
+	@Test
+	public void otherFailureClassStartsOver() {
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		cache.failed(r, FailureClass.CLIENT_ERROR);
+		assertEquals(1, cache.entries.get(r).failures);
+		// capped by maxBackoff
+		assertEquals(35, backoff(r));
+	}
+
+	@Test
+	public void entriesArePersisted() throws JSONException {
+		URI other = new URIImpl("http://example.org/other");
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		cache.failed(r, FailureClass.SERVER_ERROR);
+		cache.failed(other, FailureClass.PARSE_ERROR);
+		cache.succeeded(other);
+		flush();
+
+		NegativeCache reloaded = new NegativeCache(repository, writer, config());
+		assertEquals(1, reloaded.size());
+		assertTrue(reloaded.isBlocked(r));
+		assertFalse(reloaded.isBlocked(other));
+		assertEquals(FailureClass.SERVER_ERROR, reloaded.entries.get(r).failureClass);
+		assertEquals(2, reloaded.entries.get(r).failures);
+	}
+
+	@Test
+	public void expiredEntriesArePruned() throws JSONException {
+		URI expired = new URIImpl("http://example.org/expired");
+		URI recent = new URIImpl("http://example.org/recent");
+		cache.failed(expired, FailureClass.SERVER_ERROR);
+		cache.failed(recent, FailureClass.SERVER_ERROR);
+		// the backoff window of one entry has passed more than maxBackoff (35 seconds) ago, the other one's less
+		cache.entries.get(expired).retryAfter = new Date(System.currentTimeMillis() - 40 * 1000);
+		cache.entries.get(recent).retryAfter = new Date(System.currentTimeMillis() - 30 * 1000);
+		cache.prune();
+		assertEquals(1, cache.size());
+		assertFalse(cache.entries.containsKey(expired));
+		flush();
+
+		NegativeCache reloaded = new NegativeCache(repository, writer, config());
+		assertEquals(1, reloaded.size());
+		assertTrue(reloaded.entries.containsKey(recent));
+	}
+
+}
\ No newline at end of file
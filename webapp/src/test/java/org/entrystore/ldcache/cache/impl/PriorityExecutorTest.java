@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.entrystore.ldcache.cache.impl.PriorityExecutor.Priority;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class PriorityExecutorTest {
+
+	ExecutorService delegate;
+
+	PriorityExecutor executor;
+
+	List<Priority> order;
+
+	@Before
+	public void setUp() throws JSONException {
+		delegate = Executors.newSingleThreadExecutor();
+		// one slot, so that the order in which tasks run is the order of dispatch
+		executor = new PriorityExecutor(delegate, 1, null);
+		order = new CopyOnWriteArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		delegate.shutdownNow();
+	}
+
+	/**
+	 * Occupies the only slot until the returned latch is released.
+	 */
+	private CountDownLatch block() {
+		final CountDownLatch latch = new CountDownLatch(1);
+		executor.forPriority(Priority.INTERACTIVE).execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					latch.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return latch;
+	}
+
+	private void queue(final Priority priority, int count) {
+		for (int i = 0; i < count; i++) {
+			executor.forPriority(priority).execute(new Runnable() {
+				@Override
+				public void run() {
+					order.add(priority);
+				}
+			});
+		}
+	}
+
+	private void awaitTasks(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (order.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, order.size());
+	}
+
+	private int count(List<Priority> tasks, Priority priority) {
+		return Collections.frequency(tasks, priority);
+	}
+
+	@Test
+	public void sharesAreProportionalToWeights() throws InterruptedException {
+		CountDownLatch latch = block();
+		queue(Priority.BULK, 100);
+		queue(Priority.ON_DEMAND, 100);
+		queue(Priority.INTERACTIVE, 100);
+		latch.countDown();
+		awaitTasks(300);
+		// while all classes have work queued, 130 slots are shared 8:4:1
+		List<Priority> contended = order.subList(0, 130);
+		assertEquals(80, count(contended, Priority.INTERACTIVE), 1);
+		assertEquals(40, count(contended, Priority.ON_DEMAND), 1);
+		assertEquals(10, count(contended, Priority.BULK), 1);
+	}
+
+	@Test
+	public void bulkIsNotStarved() throws InterruptedException {
+		CountDownLatch latch = block();
+		queue(Priority.BULK, 5);
+		queue(Priority.INTERACTIVE, 100);
+		latch.countDown();
+		awaitTasks(105);
+		assertTrue(count(order.subList(0, 18), Priority.BULK) >= 2);
+	}
+
+	@Test
+	public void configuredWeightsOverrideDefaults() throws Exception {
+		executor = new PriorityExecutor(delegate, 1, new JSONObject("{\"INTERACTIVE\": 1, \"BULK\": 1}"));
+		CountDownLatch latch = block();
+		queue(Priority.BULK, 50);
+		queue(Priority.INTERACTIVE, 50);
+		latch.countDown();
+		awaitTasks(100);
+		assertEquals(25, count(order.subList(0, 50), Priority.BULK), 1);
+	}
+
+	@Test
+	public void idleClassDoesNotCatchUp() throws InterruptedException {
+		CountDownLatch latch = block();
+		queue(Priority.INTERACTIVE, 100);
+		latch.countDown();
+		awaitTasks(100);
+		order.clear();
+
+		latch = block();
+		queue(Priority.BULK, 50);
+		queue(Priority.INTERACTIVE, 50);
+		latch.countDown();
+		awaitTasks(100);
+		// BULK has been idle while INTERACTIVE ran alone, it still only gets its share
+		assertTrue(count(order.subList(0, 18), Priority.BULK) <= 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void weightsMustBePositive() throws Exception {
+		new PriorityExecutor(delegate, 1, new JSONObject("{\"BULK\": 0}"));
+	}
+
+}
\ No newline at end of file
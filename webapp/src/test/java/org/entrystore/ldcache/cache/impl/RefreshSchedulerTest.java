@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class RefreshSchedulerTest {
+
+	static URI cached = new URIImpl("http://example.org/cached");
+
+	static URI removed = new URIImpl("http://example.org/removed");
+
+	CacheImpl cache;
+
+	@Before
+	public void setUp() throws JSONException {
+		cache = new CacheImpl(new JSONObject("{\"repository\": {\"type\": \"memory\", \"indexes\": \"\"}, \"cache\": {}, \"databundles\": []}"));
+	}
+
+	@After
+	public void tearDown() {
+		cache.writer.shutdown();
+	}
+
+	private RefreshScheduler scheduler() throws JSONException {
+		return new RefreshScheduler(cache, cache.executor, new JSONObject());
+	}
+
+	/**
+	 * Waits until all writes that have been queued so far are committed.
+	 */
+	private void flush() {
+		cache.writer.update(RefreshScheduler.CONTEXT, rc -> {}).join();
+	}
+
+	@Test
+	public void registrationsArePersisted() throws JSONException {
+		RefreshScheduler scheduler = scheduler();
+		scheduler.register(Collections.singleton(cached), 600, new HashSet<>(Arrays.asList("en", "sv")));
+		flush();
+
+		RefreshScheduler reloaded = scheduler();
+		assertEquals(1, reloaded.policies.size());
+		assertEquals(600, reloaded.policies.get(cached).ttl);
+		assertEquals(new HashSet<>(Arrays.asList("en", "sv")), reloaded.policies.get(cached).includeLiteralLanguages);
+	}
+
+	@Test
+	public void registrationsOfRemovedResourcesAreDropped() throws JSONException {
+		Model graph = new LinkedHashModel();
+		graph.add(cached, RDF.TYPE, RDFS.RESOURCE);
+		cache.writer.save(new RdfResource(cached, graph, new Date())).join();
+		RefreshScheduler scheduler = scheduler();
+		scheduler.register(new HashSet<>(Arrays.asList(cached, removed)), -1, Collections.<String>emptySet());
+		scheduler.refreshExpired();
+		assertTrue(scheduler.policies.containsKey(cached));
+		assertFalse(scheduler.policies.containsKey(removed));
+		flush();
+
+		RefreshScheduler reloaded = scheduler();
+		assertEquals(Collections.singleton(cached), reloaded.policies.keySet());
+	}
+
+}
\ No newline at end of file
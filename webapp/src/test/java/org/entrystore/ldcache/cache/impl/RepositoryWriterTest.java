@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Hannes Ebner
+ */
+public class RepositoryWriterTest {
+
+	SailRepository repository;
+
+	RepositoryWriter writer;
+
+	@Before
+	public void setUp() throws RepositoryException {
+		repository = new SailRepository(new MemoryStore());
+		repository.initialize();
+	}
+
+	@After
+	public void tearDown() throws RepositoryException {
+		if (writer != null) {
+			writer.shutdown();
+		}
+		repository.shutDown();
+	}
+
+	private static URI uri(int i) {
+		return new URIImpl("http://example.org/r" + i);
+	}
+
+	private static RdfResource resource(int i) {
+		URI r = uri(i);
+		Model graph = new LinkedHashModel();
+		graph.add(r, RDFS.LABEL, new LiteralImpl("r" + i));
+		return new RdfResource(r, graph, new Date());
+	}
+
+	/**
+	 * A resource that passes the checks when it is queued but fails when it is written.
+	 */
+	private static RdfResource failingResource(int i) {
+		final AtomicBoolean queued = new AtomicBoolean();
+		RdfResource res = resource(i);
+		return new RdfResource(res.getURI(), res.getGraph(), res.getModified()) {
+			@Override
+			public Model getGraph() {
+				if (queued.getAndSet(true)) {
+					throw new IllegalStateException("Broken graph");
+				}
+				return super.getGraph();
+			}
+		};
+	}
+
+	private static void await(List<CompletableFuture<Void>> futures) throws Exception {
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void savesAndRemovesResources() throws Exception {
+		writer = new RepositoryWriter(repository, 10, 10);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			futures.add(writer.save(resource(i)));
+		}
+		await(futures);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(RdfResource.hasResource(repository, uri(i)));
+			assertFalse(writer.isPending(uri(i)));
+		}
+		writer.remove(uri(3)).get(10, TimeUnit.SECONDS);
+		assertFalse(RdfResource.hasResource(repository, uri(3)));
+		assertTrue(RdfResource.hasResource(repository, uri(4)));
+	}
+
+	@Test
+	public void writesAreBatched() throws Exception {
+		writer = new RepositoryWriter(repository, 10, 500);
+		final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+		writer.addCommitListener(new RepositoryWriter.CommitListener() {
+			@Override
+			public void committed(Set<URI> contexts) {
+				batchSizes.add(contexts.size());
+			}
+		});
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			futures.add(writer.save(resource(i)));
+		}
+		await(futures);
+		int total = 0;
+		for (int size : batchSizes) {
+			assertTrue(size <= 10);
+			total += size;
+		}
+		assertEquals(25, total);
+		assertTrue("Expected fewer commits than writes, got " + batchSizes, batchSizes.size() < 25);
+	}
+
+	@Test
+	public void pendingWriteIsVisibleUntilListenersHaveRun() throws Exception {
+		writer = new RepositoryWriter(repository, 10, 10);
+		final AtomicBoolean pendingDuringCommit = new AtomicBoolean();
+		writer.addCommitListener(new RepositoryWriter.CommitListener() {
+			@Override
+			public void committed(Set<URI> contexts) {
+				pendingDuringCommit.set(writer.isPending(uri(1)));
+			}
+		});
+		RdfResource res = resource(1);
+		CompletableFuture<Void> f = writer.save(res);
+		assertNotNull(writer.getPending(uri(1)));
+		f.get(10, TimeUnit.SECONDS);
+		assertTrue(pendingDuringCommit.get());
+		assertNull(writer.getPending(uri(1)));
+	}
+
+	@Test
+	public void failingWriteDoesNotAffectOthers() throws Exception {
+		writer = new RepositoryWriter(repository, 10, 200);
+		final AtomicInteger notified = new AtomicInteger();
+		writer.addCommitListener(new RepositoryWriter.CommitListener() {
+			@Override
+			public void committed(Set<URI> contexts) {
+				notified.addAndGet(contexts.size());
+			}
+		});
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		futures.add(writer.save(resource(0)));
+		CompletableFuture<Void> failing = writer.save(failingResource(1));
+		futures.add(writer.save(resource(2)));
+		await(futures);
+		try {
+			failing.get(10, TimeUnit.SECONDS);
+			fail("The failing write must complete exceptionally");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(RdfResource.hasResource(repository, uri(0)));
+		assertFalse(RdfResource.hasResource(repository, uri(1)));
+		assertTrue(RdfResource.hasResource(repository, uri(2)));
+		assertFalse(writer.isPending(uri(1)));
+		assertEquals(3, notified.get());
+
+		// the writer thread has survived
+		writer.save(resource(3)).get(10, TimeUnit.SECONDS);
+		assertTrue(RdfResource.hasResource(repository, uri(3)));
+	}
+
+	@Test
+	public void shutdownCommitsQueuedWrites() throws Exception {
+		writer = new RepositoryWriter(repository, 100, 10000);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(writer.save(resource(i)));
+		}
+		writer.shutdown();
+		writer = null;
+		for (CompletableFuture<Void> f : futures) {
+			assertTrue(f.isDone());
+			assertFalse(f.isCompletedExceptionally());
+		}
+		assertTrue(RdfResource.hasResource(repository, uri(4)));
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.cache.impl;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.nativerdf.NativeStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of concurrent resource writes into a fresh NativeStore:
+ * writes serialized by a single monitor (as before the striped context locks), writes
+ * with striped context locks only, and group commits through RepositoryWriter.
+ *
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.entrystore.ldcache.cache.impl.WriteBenchmark
+ *
+ * @author Hannes Ebner
+ */
+public class WriteBenchmark {
+
+	static ValueFactory vf = new ValueFactoryImpl();
+
+	static int WRITES = 800;
+
+	static int TRIPLES = 50;
+
+	static Model createGraph(URI r) {
+		Model graph = new LinkedHashModel();
+		for (int i = 0; i < TRIPLES; i++) {
+			graph.add(r, vf.createURI("http://example.org/p" + i), vf.createLiteral("v" + i + r));
+		}
+		return graph;
+	}
+
+	static long run(final String mode, int threads) throws Exception {
+		File dir = Files.createTempDirectory("ldcache-bench").toFile();
+		final SailRepository repository = new SailRepository(new NativeStore(dir));
+		repository.initialize();
+		final RepositoryWriter writer = "groupcommit".equals(mode) ? new RepositoryWriter(repository, 100, 50) : null;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> submitted = new ArrayList<>();
+		final List<CompletableFuture<Void>> committed = Collections.synchronizedList(new ArrayList<CompletableFuture<Void>>());
+		long begin = System.nanoTime();
+		for (int i = 0; i < WRITES; i++) {
+			final URI r = vf.createURI("http://example.org/" + mode + "/" + threads + "/r" + i);
+			submitted.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					RdfResource res = new RdfResource(r, createGraph(r), new Date());
+					if ("monitor".equals(mode)) {
+						synchronized (repository) {
+							RdfResource.saveToRepository(repository, res);
+						}
+					} else if ("striped".equals(mode)) {
+						RdfResource.saveToRepository(repository, res);
+					} else {
+						committed.add(writer.save(res));
+					}
+				}
+			}));
+		}
+		for (Future<?> f : submitted) {
+			f.get();
+		}
+		for (CompletableFuture<Void> f : committed) {
+			f.get();
+		}
+		long elapsed = (System.nanoTime() - begin) / 1000000;
+		executor.shutdown();
+		if (writer != null) {
+			writer.shutdown();
+		}
+		repository.shutDown();
+		return Math.max(1, elapsed);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Logger.getRootLogger().setLevel(Level.OFF);
+		int[] threadCounts = {1, 2, 4, 8};
+		// warm-up
+		for (int threads : threadCounts) {
+			run("striped", threads);
+		}
+		System.out.println(WRITES + " writes of " + TRIPLES + " triples each, in writes per second");
+		System.out.printf("%-12s", "threads");
+		for (int threads : threadCounts) {
+			System.out.printf("%6d", threads);
+		}
+		System.out.println();
+		for (String mode : new String[]{"monitor", "striped", "groupcommit"}) {
+			System.out.printf("%-12s", mode);
+			for (int threads : threadCounts) {
+				System.out.printf("%6.0f", WRITES * 1000.0 / run(mode, threads));
+			}
+			System.out.println();
+		}
+	}
+
+}
\ No newline at end of file
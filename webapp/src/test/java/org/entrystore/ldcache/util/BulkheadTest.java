@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Hannes Ebner
+ */
+public class BulkheadTest {
+
+	@Test
+	public void permitsAreLimitedPerHost() {
+		Bulkhead bulkhead = new Bulkhead(2, 10);
+		assertTrue(bulkhead.acquire("a").isDone());
+		assertTrue(bulkhead.acquire("a").isDone());
+		assertFalse(bulkhead.acquire("a").isDone());
+		// other hosts are not affected
+		assertTrue(bulkhead.acquire("b").isDone());
+		assertEquals(Integer.valueOf(2), bulkhead.getActive().get("a"));
+		assertEquals(Integer.valueOf(1), bulkhead.getActive().get("b"));
+	}
+
+	@Test
+	public void releaseHandsPermitToNextWaiting() {
+		Bulkhead bulkhead = new Bulkhead(1, 10);
+		CompletableFuture<Void> first = bulkhead.acquire("a");
+		CompletableFuture<Void> second = bulkhead.acquire("a");
+		CompletableFuture<Void> third = bulkhead.acquire("a");
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		bulkhead.release("a");
+		// handed over in order, the number of active requests stays the same
+		assertTrue(second.isDone());
+		assertFalse(third.isDone());
+		assertEquals(Integer.valueOf(1), bulkhead.getActive().get("a"));
+		bulkhead.release("a");
+		assertTrue(third.isDone());
+		bulkhead.release("a");
+		// an idle compartment is dropped
+		assertNull(bulkhead.getActive().get("a"));
+	}
+
+	@Test
+	public void cancelledWaitingRequestPassesPermitOn() {
+		Bulkhead bulkhead = new Bulkhead(1, 10);
+		bulkhead.acquire("a");
+		CompletableFuture<Void> cancelled = bulkhead.acquire("a");
+		CompletableFuture<Void> next = bulkhead.acquire("a");
+		cancelled.cancel(false);
+		bulkhead.release("a");
+		assertTrue(next.isDone());
+		assertFalse(next.isCompletedExceptionally());
+		assertEquals(Integer.valueOf(1), bulkhead.getActive().get("a"));
+	}
+
+	@Test
+	public void fullQueueRejects() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead(1, 1);
+		bulkhead.acquire("a");
+		CompletableFuture<Void> queued = bulkhead.acquire("a");
+		CompletableFuture<Void> rejected = bulkhead.acquire("a");
+		assertFalse(queued.isDone());
+		assertTrue(rejected.isCompletedExceptionally());
+		try {
+			rejected.get();
+			fail("The request must be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		// a rejected request does not hold a permit
+		bulkhead.release("a");
+		assertTrue(queued.isDone());
+		bulkhead.release("a");
+		assertNull(bulkhead.getActive().get("a"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void atLeastOnePermit() {
+		new Bulkhead(0, 1);
+	}
+
+}
\ No newline at end of file
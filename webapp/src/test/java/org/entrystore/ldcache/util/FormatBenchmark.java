@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.openrdf.model.Model;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Compares size, write and parse time of binary RDF with the text formats for a graph
+ * shaped like the Nobel Prize data, with URIs, language-tagged and typed literals.
+ * Times are the best of five rounds after a warm-up round.
+ *
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.entrystore.ldcache.util.FormatBenchmark
+ *
+ * @author Hannes Ebner
+ */
+public class FormatBenchmark {
+
+	static int RESOURCES = 20000;
+
+	static int ROUNDS = 5;
+
+	static Model createGraph() {
+		ValueFactory vf = new ValueFactoryImpl();
+		Model graph = new LinkedHashModel();
+		Random random = new Random(42);
+		String[] languages = {"en", "sv", "de", "fr", "es"};
+		for (int i = 0; i < RESOURCES; i++) {
+			URI s = vf.createURI("http://data.nobelprize.org/resource/laureate/" + i);
+			graph.add(s, vf.createURI(NS.rdf, "type"), vf.createURI(NS.nobel, "Laureate"));
+			graph.add(s, vf.createURI(NS.foaf, "name"), vf.createLiteral("Laureate number " + i));
+			graph.add(s, vf.createURI(NS.foaf, "birthday"), vf.createLiteral(new Date(random.nextLong() % 3000000000000L)));
+			for (String l : languages) {
+				graph.add(s, vf.createURI(NS.rdfs, "label"), vf.createLiteral("Label " + i + " in " + l + " with some descriptive text", l));
+			}
+			graph.add(s, vf.createURI(NS.owl, "sameAs"), vf.createURI("http://dbpedia.org/resource/Person_" + i));
+			graph.add(s, vf.createURI(NS.nobel, "laureateAward"), vf.createURI("http://data.nobelprize.org/resource/laureateaward/" + random.nextInt(1000)));
+			graph.add(s, vf.createURI(NS.dcterms, "modified"), vf.createLiteral(i));
+		}
+		return graph;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Model graph = createGraph();
+		System.out.println(graph.size() + " statements");
+		RDFFormat[] formats = {RDFFormat.BINARY, RDFFormat.TURTLE, RDFFormat.NTRIPLES, RDFFormat.RDFXML};
+		for (int round = 0; round < 2; round++) {
+			for (RDFFormat format : formats) {
+				long write = Long.MAX_VALUE;
+				long parse = Long.MAX_VALUE;
+				byte[] serialized = null;
+				for (int i = 0; i < ROUNDS; i++) {
+					long begin = System.nanoTime();
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					Rio.write(graph, out, format);
+					serialized = out.toByteArray();
+					write = Math.min(write, System.nanoTime() - begin);
+					begin = System.nanoTime();
+					Model parsed = Rio.parse(new ByteArrayInputStream(serialized), "", format);
+					parse = Math.min(parse, System.nanoTime() - begin);
+					if (parsed.size() != graph.size()) {
+						throw new IllegalStateException(format.getName() + " returned " + parsed.size() + " statements");
+					}
+				}
+				// the first round is the warm-up
+				if (round > 0) {
+					System.out.printf("%-10s size %6d KB  write %5d ms  parse %5d ms%n", format.getName(), serialized.length / 1024, write / 1000000, parse / 1000000);
+				}
+			}
+		}
+	}
+
+}
\ No newline at end of file
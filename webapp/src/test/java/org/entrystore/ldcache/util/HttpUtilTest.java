@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Hannes Ebner
+ */
+public class HttpUtilTest {
+
+	static String BODY;
+
+	static {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("<http://example.org/r> <http://example.org/p").append(i).append("> \"value ").append(i).append("\" .\n");
+		}
+		BODY = sb.toString();
+	}
+
+	/**
+	 * A response with a body and a Content-Encoding header, nothing else.
+	 */
+	static class EncodedResponse implements HttpResponse<byte[]> {
+
+		byte[] body;
+
+		HttpHeaders headers;
+
+		EncodedResponse(byte[] body, String encoding) {
+			this.body = body;
+			Map<String, List<String>> map = encoding != null ? Collections.singletonMap("Content-Encoding", Collections.singletonList(encoding)) : Collections.<String, List<String>>emptyMap();
+			this.headers = HttpHeaders.of(map, (name, value) -> true);
+		}
+
+		@Override
+		public int statusCode() {
+			return 200;
+		}
+
+		@Override
+		public HttpRequest request() {
+			return null;
+		}
+
+		@Override
+		public Optional<HttpResponse<byte[]>> previousResponse() {
+			return Optional.empty();
+		}
+
+		@Override
+		public HttpHeaders headers() {
+			return headers;
+		}
+
+		@Override
+		public byte[] body() {
+			return body;
+		}
+
+		@Override
+		public Optional<SSLSession> sslSession() {
+			return Optional.empty();
+		}
+
+		@Override
+		public URI uri() {
+			return URI.create("http://example.org/r");
+		}
+
+		@Override
+		public HttpClient.Version version() {
+			return HttpClient.Version.HTTP_1_1;
+		}
+
+	}
+
+	private static byte[] compress(OutputStream compressor, ByteArrayOutputStream target) throws IOException {
+		compressor.write(BODY.getBytes(StandardCharsets.UTF_8));
+		compressor.close();
+		return target.toByteArray();
+	}
+
+	private static String decode(byte[] body, String encoding) throws IOException {
+		InputStream in = HttpUtil.getBodyStream(new EncodedResponse(body, encoding));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				out.write(buffer, 0, len);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void uncompressedBody() throws IOException {
+		byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+		assertEquals(BODY, decode(body, null));
+		assertEquals(BODY, decode(body, "identity"));
+	}
+
+	@Test
+	public void gzipBody() throws IOException {
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		byte[] body = compress(new GZIPOutputStream(target), target);
+		assertEquals(BODY, decode(body, "gzip"));
+		assertEquals(BODY, decode(body, "x-gzip"));
+		assertEquals(BODY, decode(body, " GZIP "));
+	}
+
+	@Test
+	public void zlibWrappedDeflateBody() throws IOException {
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		byte[] body = compress(new DeflaterOutputStream(target), target);
+		assertEquals(BODY, decode(body, "deflate"));
+	}
+
+	@Test
+	public void rawDeflateBody() throws IOException {
+		// some servers send deflate data without the zlib header
+		for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level++) {
+			ByteArrayOutputStream target = new ByteArrayOutputStream();
+			byte[] body = compress(new DeflaterOutputStream(target, new Deflater(level, true)), target);
+			assertEquals("Compression level " + level, BODY, decode(body, "deflate"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void unsupportedEncoding() throws IOException {
+		HttpUtil.getBodyStream(new EncodedResponse(new byte[0], "br"));
+	}
+
+	@Test
+	public void compartmentOfHost() {
+		assertEquals("example.org", HttpUtil.getCompartment(URI.create("http://example.org:8080/r")));
+		// not a valid host name, java.net.URI parses it as registry-based authority
+		assertEquals("my_host:8080", HttpUtil.getCompartment(URI.create("http://my_host:8080/r")));
+		assertNull(HttpUtil.getCompartment(URI.create("urn:example:r")));
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.junit.Test;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Model;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.DCTERMS;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class LanguageFilterTest {
+
+	static ValueFactory vf = new ValueFactoryImpl();
+
+	static URI root = vf.createURI("http://example.org/root");
+
+	private static Set<String> whitelist(String... languages) {
+		return new HashSet<>(Arrays.asList(languages));
+	}
+
+	@Test
+	public void dropsLiteralsOfRootResource() {
+		Model m = new LinkedHashModel();
+		m.add(root, RDFS.LABEL, vf.createLiteral("label", "en"));
+		m.add(root, RDFS.LABEL, vf.createLiteral("etikett", "sv"));
+		m.add(root, RDFS.COMMENT, vf.createLiteral("plain"));
+		m.add(root, RDF.TYPE, RDFS.RESOURCE);
+		Model result = ModelUtil.filterLanguageLiterals(m, root, whitelist("en"));
+		assertTrue(result.contains(root, RDFS.LABEL, vf.createLiteral("label", "en")));
+		assertFalse(result.contains(root, RDFS.LABEL, vf.createLiteral("etikett", "sv")));
+		assertFalse(result.contains(root, RDFS.COMMENT, vf.createLiteral("plain")));
+		assertTrue(result.contains(root, RDF.TYPE, RDFS.RESOURCE));
+	}
+
+	@Test
+	public void emptyLanguageMatchesPlainLiterals() {
+		Model m = new LinkedHashModel();
+		m.add(root, RDFS.COMMENT, vf.createLiteral("plain"));
+		m.add(root, RDFS.LABEL, vf.createLiteral("label", "en"));
+		Model result = ModelUtil.filterLanguageLiterals(m, root, whitelist(""));
+		assertTrue(result.contains(root, RDFS.COMMENT, vf.createLiteral("plain")));
+		assertFalse(result.contains(root, RDFS.LABEL, vf.createLiteral("label", "en")));
+	}
+
+	@Test
+	public void dropsBNodeWithFilteredLiteral() {
+		Model m = new LinkedHashModel();
+		BNode description = vf.createBNode();
+		m.add(root, DCTERMS.DESCRIPTION, description);
+		m.add(description, RDF.VALUE, vf.createLiteral("beskrivning", "sv"));
+		Model result = ModelUtil.filterLanguageLiterals(m, root, whitelist("en"));
+		assertFalse(result.contains(root, DCTERMS.DESCRIPTION, description));
+		// the BNode's own statements are kept, only the link from the root is dropped
+		assertTrue(result.contains(description, RDF.VALUE, vf.createLiteral("beskrivning", "sv")));
+	}
+
+	@Test
+	public void dropsDanglingBNodes() {
+		Model m = new LinkedHashModel();
+		m.add(root, DCTERMS.CREATOR, vf.createBNode());
+		Model result = ModelUtil.filterLanguageLiterals(m, root, whitelist("en"));
+		assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void wildcardKeepsEverything() {
+		Model m = new LinkedHashModel();
+		m.add(root, RDFS.LABEL, vf.createLiteral("etikett", "sv"));
+		assertSame(m, ModelUtil.filterLanguageLiterals(m, root, whitelist("*")));
+	}
+
+	@Test
+	public void equivalentToModelBasedFilter() {
+		Random random = new Random(1);
+		String[] languages = {null, "en", "de", "sv", "fr"};
+		URI other = vf.createURI("http://example.org/other");
+		for (int t = 0; t < 2000; t++) {
+			Model m = new LinkedHashModel();
+			List<Resource> subjects = new ArrayList<>();
+			subjects.add(root);
+			subjects.add(other);
+			for (int b = 0; b < 4; b++) {
+				subjects.add(vf.createBNode("b" + b));
+			}
+			for (int i = 0; i < 15; i++) {
+				Resource s = subjects.get(random.nextInt(subjects.size()));
+				Value o;
+				int kind = random.nextInt(3);
+				if (kind == 0) {
+					String l = languages[random.nextInt(languages.length)];
+					o = l == null ? vf.createLiteral("x" + i) : vf.createLiteral("x" + i, l);
+				} else if (kind == 1) {
+					o = vf.createBNode("b" + random.nextInt(6));
+				} else {
+					o = vf.createURI("http://example.org/o" + i);
+				}
+				m.add(s, vf.createURI("http://example.org/p" + random.nextInt(3)), o);
+			}
+			Set<String> wl = t % 3 == 0 ? whitelist("de") : whitelist("", "en");
+			assertEquals("Graph " + t + " is filtered differently",
+					new HashSet<>(filterWithModel(m, root, wl)),
+					new HashSet<>(ModelUtil.filterLanguageLiterals(m, root, wl)));
+		}
+	}
+
+	/**
+	 * The model-based implementation that LanguageFilter replaced, kept as reference.
+	 */
+	private static Model filterWithModel(Model m, URI rootResource, Set<String> languageWhitelist) {
+		if (languageWhitelist.size() == 0 || languageWhitelist.contains("")) {
+			languageWhitelist = new HashSet<>(languageWhitelist);
+			languageWhitelist.remove("");
+			languageWhitelist.add(null);
+		}
+		Model result = new LinkedHashModel(m);
+		Iterator<Statement> stmntIt = m.filter(rootResource, null, null).iterator();
+		while (stmntIt.hasNext()) {
+			Statement s = stmntIt.next();
+			Value o = s.getObject();
+			if (o instanceof Literal && !languageWhitelist.contains(((Literal) o).getLanguage())) {
+				result.remove(s);
+			} else if (o instanceof BNode) {
+				Iterator<Statement> indirectStmntIt = m.filter((BNode) o, null, null).iterator();
+				while (indirectStmntIt.hasNext()) {
+					Value o2 = indirectStmntIt.next().getObject();
+					if (o2 instanceof Literal && !languageWhitelist.contains(((Literal) o2).getLanguage())) {
+						result.remove(s);
+					}
+				}
+			}
+		}
+		// removes BNodes in object position that never appear in subject position
+		Model withoutDangling = new LinkedHashModel(result);
+		for (Value object : result.objects()) {
+			if (object instanceof BNode && result.filter((BNode) object, null, null).isEmpty()) {
+				withoutDangling.remove(null, null, object);
+			}
+		}
+		return withoutDangling;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 MetaSolutions AB <info@metasolutions.se>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.entrystore.ldcache.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Hannes Ebner
+ */
+public class RetryPolicyTest {
+
+	RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+
+	@Test
+	public void delayDoublesWithJitter() {
+		for (int i = 0; i < 100; i++) {
+			long first = policy.getDelay(1, -1);
+			long second = policy.getDelay(2, -1);
+			long third = policy.getDelay(3, -1);
+			assertTrue(first >= 50 && first <= 100);
+			assertTrue(second >= 100 && second <= 200);
+			assertTrue(third >= 200 && third <= 400);
+		}
+	}
+
+	@Test
+	public void delayIsCappedByMaxDelay() {
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.getDelay(5, -1);
+			assertTrue(delay >= 500 && delay <= 1000);
+		}
+		RetryPolicy many = new RetryPolicy(100, 100, 1000);
+		assertTrue(many.getDelay(100, -1) <= 1000);
+	}
+
+	@Test
+	public void noDelayBeyondMaxRetries() {
+		assertEquals(-1, policy.getDelay(6, -1));
+		assertEquals(-1, policy.getDelay(0, -1));
+		assertEquals(-1, RetryPolicy.NONE.getDelay(1, -1));
+	}
+
+	@Test
+	public void retryAfterIsRespected() {
+		assertEquals(900, policy.getDelay(1, 900));
+		// a longer delay than the maximum is not waited for
+		assertEquals(-1, policy.getDelay(1, 5000));
+		// a shorter Retry-After does not shorten the backoff
+		assertTrue(policy.getDelay(3, 10) >= 200);
+	}
+
+	@Test
+	public void retryableStatuses() {
+		assertTrue(RetryPolicy.isRetryable(408));
+		assertTrue(RetryPolicy.isRetryable(429));
+		assertTrue(RetryPolicy.isRetryable(500));
+		assertTrue(RetryPolicy.isRetryable(503));
+		assertFalse(RetryPolicy.isRetryable(501));
+		assertFalse(RetryPolicy.isRetryable(505));
+		assertFalse(RetryPolicy.isRetryable(404));
+		assertFalse(RetryPolicy.isRetryable(400));
+	}
+
+	@Test
+	public void retryableFailures() {
+		assertTrue(RetryPolicy.isRetryable(new IOException()));
+		assertTrue(RetryPolicy.isRetryable(new HttpTimeoutException("timeout")));
+		assertFalse(RetryPolicy.isRetryable(new IllegalArgumentException()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxDelayMustNotBeBelowBaseDelay() {
+		new RetryPolicy(1, 1000, 100);
+	}
+
+}
\ No newline at end of file